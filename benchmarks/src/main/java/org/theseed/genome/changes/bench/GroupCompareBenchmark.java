@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.theseed.genome.changes.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.protein.tags.ArrayTagCounts;
+import org.theseed.protein.tags.GroupCompareEngine;
+import org.theseed.protein.tags.SyntheticTagGenerator;
+import org.theseed.protein.tags.TagCounts;
+import org.theseed.protein.tags.TagDictionary;
+import org.theseed.protein.tags.TagDirectory;
+
+/**
+ * This benchmark measures GroupCompareEngine.distinguishLeft on the tag counts of two synthetic genome groups, and
+ * compares the one-vs-rest path that builds a complement count map with the fused distinguishFromRest scan.
+ * The groups are the two top-level groupings of a synthetic taxonomy with a fan-out of two, so they have real
+ * distinguishing tags as well as a large shared background.  The counts are computed once per trial, so only the
+ * comparison is measured.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupCompareBenchmark {
+
+    // FIELDS
+    /** number of distinct tags */
+    @Param({ "1000", "10000", "100000" })
+    public int vocabSize;
+    /** count map implementation */
+    @Param({ "hash", "array" })
+    public String impl;
+    /** number of genomes in each group */
+    @Param({ "500" })
+    public int groupSize;
+    /** Zipf exponent for background tag frequencies */
+    @Param({ "1.0" })
+    public double zipf;
+    /** temporary directory for the engine's tag directory */
+    private File workDir;
+    /** comparison engine */
+    private GroupCompareEngine engine;
+    /** counts for the left group */
+    private TagCounts leftCounts;
+    /** counts for the right group */
+    private TagCounts rightCounts;
+    /** counts for both groups together */
+    private TagCounts totalCounts;
+
+    @Setup
+    public void setup() throws IOException, ParseFailureException {
+        this.workDir = Files.createTempDirectory("groupBench").toFile();
+        TagDirectory tagDir = new TagDirectory(new File(this.workDir, "tags"));
+        this.engine = new GroupCompareEngine(tagDir, 0.2, 0.8);
+        final int nGenomes = this.groupSize * 2;
+        SyntheticTagGenerator data = new SyntheticTagGenerator(nGenomes, this.vocabSize, 42L);
+        data.setFanOut(2);
+        data.setGenomeTags(this.vocabSize / 10);
+        data.setZipfExponent(this.zipf);
+        this.leftCounts = this.create(tagDir);
+        this.rightCounts = this.create(tagDir);
+        TagDictionary dict = tagDir.getDictionary();
+        for (int g = 0; g < nGenomes; g++) {
+            TagCounts counts = (g < this.groupSize ? this.leftCounts : this.rightCounts);
+            Set<String> tags = data.tags(g);
+            if (counts instanceof ArrayTagCounts)
+                ((ArrayTagCounts) counts).count(dict.getIds(tags));
+            else
+                counts.count(tags);
+        }
+        this.totalCounts = this.create(tagDir);
+        this.totalCounts.merge(this.leftCounts);
+        this.totalCounts.merge(this.rightCounts);
+    }
+
+    /**
+     * @return an empty count map of the type being benchmarked
+     *
+     * @param tagDir	tag directory whose dictionary is to be used
+     */
+    private TagCounts create(TagDirectory tagDir) {
+        TagCounts retVal;
+        if (this.impl.equals("array"))
+            retVal = tagDir.createTagCounts();
+        else
+            retVal = new TagCounts();
+        return retVal;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.forceDelete(this.workDir);
+    }
+
+    @Benchmark
+    public Set<String> distinguishLeft() {
+        return this.engine.distinguishLeft(this.leftCounts, this.groupSize, this.rightCounts, this.groupSize);
+    }
+
+    @Benchmark
+    public Set<String> minusThenDistinguish() {
+        TagCounts rest = this.totalCounts.minus(this.leftCounts);
+        return this.engine.distinguishLeft(this.leftCounts, this.groupSize, rest, this.groupSize);
+    }
+
+    @Benchmark
+    public Set<String> distinguishFromRest() {
+        return this.engine.distinguishFromRest(this.totalCounts, this.groupSize * 2, this.leftCounts, this.groupSize);
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.theseed.genome.changes.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.protein.tags.ArrayTagCounts;
+import org.theseed.protein.tags.SyntheticTagGenerator;
+import org.theseed.protein.tags.TagCounts;
+import org.theseed.protein.tags.TagDictionary;
+
+/**
+ * These benchmarks measure the basic tag-counting operations:  counting a batch of genome tag sets, merging two
+ * count maps, and subtracting one count map from another.  The "hash" implementation is the string-keyed
+ * TagCounts map, and the "array" implementation is ArrayTagCounts over a tag dictionary.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagCountsBenchmark {
+
+    // FIELDS
+    /** number of distinct tags */
+    @Param({ "1000", "10000", "100000" })
+    public int vocabSize;
+    /** count map implementation */
+    @Param({ "hash", "array" })
+    public String impl;
+    /** number of genome tag sets in a batch */
+    @Param({ "100" })
+    public int batchSize;
+    /** Zipf exponent for background tag frequencies */
+    @Param({ "1.0" })
+    public double zipf;
+    /** tag dictionary */
+    private TagDictionary dict;
+    /** tag sets for the batch */
+    private List<Set<String>> tagSets;
+    /** tag ID arrays for the batch */
+    private List<int[]> tagIdSets;
+    /** counts for the first half of the batch */
+    private TagCounts leftCounts;
+    /** counts for the whole batch */
+    private TagCounts allCounts;
+
+    @Setup
+    public void setup() {
+        SyntheticTagGenerator data = new SyntheticTagGenerator(this.batchSize, this.vocabSize, 42L);
+        data.setGenomeTags(this.vocabSize / 10);
+        data.setZipfExponent(this.zipf);
+        this.dict = new TagDictionary();
+        this.tagSets = new ArrayList<Set<String>>(this.batchSize);
+        this.tagIdSets = new ArrayList<int[]>(this.batchSize);
+        for (int g = 0; g < this.batchSize; g++) {
+            Set<String> tags = data.tags(g);
+            this.tagSets.add(tags);
+            this.tagIdSets.add(this.dict.getIds(tags));
+        }
+        this.leftCounts = this.countRange(0, this.batchSize / 2);
+        this.allCounts = this.countRange(0, this.batchSize);
+    }
+
+    /**
+     * @return an empty count map of the type being benchmarked
+     */
+    private TagCounts create() {
+        TagCounts retVal;
+        if (this.impl.equals("array"))
+            retVal = new ArrayTagCounts(this.dict);
+        else
+            retVal = new TagCounts();
+        return retVal;
+    }
+
+    /**
+     * @return the counts for a range of genomes in the batch
+     *
+     * @param start		index of the first genome
+     * @param end		index past the last genome
+     */
+    private TagCounts countRange(int start, int end) {
+        TagCounts retVal = this.create();
+        if (retVal instanceof ArrayTagCounts) {
+            ArrayTagCounts arrayCounts = (ArrayTagCounts) retVal;
+            for (int i = start; i < end; i++)
+                arrayCounts.count(this.tagIdSets.get(i));
+        } else {
+            for (int i = start; i < end; i++)
+                retVal.count(this.tagSets.get(i));
+        }
+        return retVal;
+    }
+
+    @Benchmark
+    public TagCounts count() {
+        return this.countRange(0, this.batchSize);
+    }
+
+    @Benchmark
+    public TagCounts merge() {
+        TagCounts retVal = this.create();
+        retVal.merge(this.leftCounts);
+        retVal.merge(this.allCounts);
+        return retVal;
+    }
+
+    @Benchmark
+    public TagCounts minus() {
+        return this.allCounts.minus(this.leftCounts);
+    }
+
+}
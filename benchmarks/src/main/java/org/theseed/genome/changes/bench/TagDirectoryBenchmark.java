@@ -0,0 +1,129 @@
+/**
+ *
+ */
+package org.theseed.genome.changes.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.protein.tags.SyntheticTagGenerator;
+import org.theseed.protein.tags.TagCounts;
+import org.theseed.protein.tags.TagDirectory;
+
+/**
+ * These benchmarks measure TagDirectory.getTagCounts over a synthetic tag directory.  The directory is built once
+ * per trial in a temporary directory.  The storage modes are
+ *
+ * files	individual tag files, no cache
+ * cached	individual tag files, with a 500MB tag set cache
+ * packed	packed binary tag store
+ * memory	packed tag store loaded into memory as bitmaps
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TagDirectoryBenchmark {
+
+    // FIELDS
+    /** number of genomes in the directory */
+    @Param({ "1000", "10000", "100000" })
+    public int nGenomes;
+    /** number of distinct tags */
+    @Param({ "10000", "100000" })
+    public int vocabSize;
+    /** number of noise tags per genome */
+    @Param({ "1000" })
+    public int genomeTags;
+    /** Zipf exponent for background tag frequencies */
+    @Param({ "1.0" })
+    public double zipf;
+    /** storage mode */
+    @Param({ "files", "cached", "packed", "memory" })
+    public String storage;
+    /** number of genomes in a random group */
+    @Param({ "1000" })
+    public int groupSize;
+    /** temporary directory for the data */
+    private File workDir;
+    /** tag directory */
+    private TagDirectory tagDir;
+    /** random group of genomes */
+    private Set<String> group;
+    /** set of all the genomes */
+    private Set<String> allGenomes;
+    /** tag set cache size for the cached mode */
+    private static final long CACHE_SIZE = 500L * 1024 * 1024;
+
+    @Setup
+    public void setup() throws IOException {
+        this.workDir = Files.createTempDirectory("tagBench").toFile();
+        File tagDirName = new File(this.workDir, "tags");
+        SyntheticTagGenerator data = new SyntheticTagGenerator(this.nGenomes, this.vocabSize, 42L);
+        data.setGenomeTags(this.genomeTags);
+        data.setZipfExponent(this.zipf);
+        TagDirectory buildDir = new TagDirectory(tagDirName);
+        data.fillTagDirectory(buildDir);
+        if (this.storage.equals("packed") || this.storage.equals("memory"))
+            buildDir.pack();
+        // Reload the directory so we are not using anything left in memory by the build.
+        this.tagDir = new TagDirectory(tagDirName);
+        switch (this.storage) {
+        case "cached" :
+            this.tagDir.setCacheLimit(CACHE_SIZE);
+            break;
+        case "memory" :
+            this.tagDir.loadBitMaps();
+            break;
+        }
+        // Choose the genome groups.
+        List<String> genomes = new ArrayList<String>(this.nGenomes);
+        for (int g = 0; g < this.nGenomes; g++)
+            genomes.add(SyntheticTagGenerator.genomeId(g));
+        this.allGenomes = new HashSet<String>(genomes);
+        Collections.shuffle(genomes, new Random(42L));
+        this.group = new HashSet<String>(genomes.subList(0, Math.min(this.groupSize, this.nGenomes)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.forceDelete(this.workDir);
+    }
+
+    @Benchmark
+    public TagCounts countGroup() throws IOException {
+        return this.tagDir.getTagCounts(this.group);
+    }
+
+    @Benchmark
+    public TagCounts countAll() throws IOException {
+        return this.tagDir.getTagCounts(this.allGenomes);
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.theseed.genome.changes.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.protein.tags.SyntheticTagGenerator;
+import org.theseed.protein.tags.TagDirectory;
+import org.theseed.protein.tags.TaxonCompare;
+import org.theseed.taxonomy.TaxonListDirectory;
+
+/**
+ * This benchmark measures a full TaxonCompare.computeDistinguishingTags run over a synthetic taxonomy.  The tag
+ * directory and taxon list directory are built once per trial.  Each invocation is a complete mass comparison,
+ * so the benchmark uses single-shot timing.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TaxonCompareBenchmark {
+
+    // FIELDS
+    /** number of genomes */
+    @Param({ "1000", "10000" })
+    public int nGenomes;
+    /** number of distinct tags */
+    @Param({ "10000", "100000" })
+    public int vocabSize;
+    /** number of noise tags per genome */
+    @Param({ "1000" })
+    public int genomeTags;
+    /** Zipf exponent for background tag frequencies */
+    @Param({ "1.0" })
+    public double zipf;
+    /** number of children per taxonomic grouping */
+    @Param({ "3" })
+    public int fanOut;
+    /** TRUE for bottom-up aggregation */
+    @Param({ "false", "true" })
+    public boolean bottomUp;
+    /** storage mode for the tag directory (files, packed, or memory) */
+    @Param({ "packed" })
+    public String storage;
+    /** temporary directory for the data */
+    private File workDir;
+    /** taxon comparison object */
+    private TaxonCompare compare;
+
+    @Setup
+    public void setup() throws IOException, ParseFailureException {
+        this.workDir = Files.createTempDirectory("taxBench").toFile();
+        File tagDirName = new File(this.workDir, "tags");
+        File taxDirName = new File(this.workDir, "taxa");
+        SyntheticTagGenerator data = new SyntheticTagGenerator(this.nGenomes, this.vocabSize, 42L);
+        data.setFanOut(this.fanOut);
+        data.setGenomeTags(this.genomeTags);
+        data.setZipfExponent(this.zipf);
+        data.fillTaxonDirectory(new TaxonListDirectory(taxDirName));
+        TagDirectory buildDir = new TagDirectory(tagDirName);
+        data.fillTagDirectory(buildDir);
+        if (! this.storage.equals("files"))
+            buildDir.pack();
+        // Reload the directory so we are not using anything left in memory by the build.
+        TagDirectory tagDir = new TagDirectory(tagDirName);
+        if (this.storage.equals("memory"))
+            tagDir.loadBitMaps();
+        TaxonListDirectory taxDir = new TaxonListDirectory(taxDirName);
+        this.compare = new TaxonCompare(taxDir, tagDir, 0.2, 0.8);
+        this.compare.setBottomUp(this.bottomUp);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.forceDelete(this.workDir);
+    }
+
+    @Benchmark
+    public Map<Integer, Set<String>> computeDistinguishingTags() throws IOException {
+        return this.compare.computeDistinguishingTags();
+    }
+
+}
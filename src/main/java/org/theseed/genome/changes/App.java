@@ -10,9 +10,11 @@ import org.theseed.basic.BaseProcessor;
  *	buildTags		build a tag directory for a genome source
  *  buildTax		build taxonomy lists for a genome source
  *  taxonCompare	find tag differences between taxonomic subgroups of a genome source
+ *  taxonSweep		find tag differences between taxonomic subgroups for multiple threshold settings
  *  setCompare		find tag differences between two non-intersecting subsets of a genome source
  *  setProcess		scan a genome source for tags and find tag differences between two non-intersecting subsets
  *  taxonPipe		build the tag directory and taxonomy lists for a genome source and output differentiating tags
+ *  synthetic		generate a synthetic tag directory and taxonomy lists for scale testing
  *
  */
 public class App
@@ -22,9 +24,11 @@ public class App
              "buildTags", "build a tag directory for a genome source",
              "buildTax", "build taxonomy lists for a genome source",
              "taxonCompare", "find tag differences between taxonomic subgroups of a genome source",
+             "taxonSweep", "find tag differences between taxonomic subgroups for multiple threshold settings",
              "setCompare", "find tag differences between two non-intersecting subsets of a genome source",
              "setProcess", "scan a genome source for tags and find tag differences between two non-intersecting subsets",
-             "taxonPipe", "build the tag directory and taxonomy lists for a genome source and output differentiating tags"
+             "taxonPipe", "build the tag directory and taxonomy lists for a genome source and output differentiating tags",
+             "synthetic", "generate a synthetic tag directory and taxonomy lists for scale testing"
     };
 
     public static void main( String[] args )
@@ -44,6 +48,9 @@ public class App
         case "taxonCompare" :
             processor = new TaxonAnalysisProcessor();
             break;
+        case "taxonSweep" :
+            processor = new TaxonSweepProcessor();
+            break;
         case "setCompare" :
             processor = new SetCompareProcessor();
             break;
@@ -53,6 +60,9 @@ public class App
         case "taxonPipe" :
             processor = new TaxonPipeProcessor();
             break;
+        case "synthetic" :
+            processor = new SyntheticDataProcessor();
+            break;
         case "-h" :
         case "--help" :
             processor = null;
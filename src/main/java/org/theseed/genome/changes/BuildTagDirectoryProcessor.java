@@ -5,6 +5,8 @@ package org.theseed.genome.changes;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
@@ -35,6 +37,10 @@ import org.theseed.protein.tags.scanner.FeatureScanner.IParms;
  * --clear		erase the output directory before processing
  * --tags		type of feature scanner to use (default ROLE)
  * --roles		name of the role definition file (default "roles.in.subsystems" in the current directory)
+ * --pack		pack the tag sets into a single binary store file when done
+ * --workers	number of worker threads for scanning genomes (default 1)
+ * --parallelLoad	load the genomes on the worker threads as well; this requires a genome source that is safe for
+ * 					concurrent loading, such as DIR or MASTER
  *
  * @author Bruce Parrello
  *
@@ -67,6 +73,18 @@ public class BuildTagDirectoryProcessor extends BaseGenomeProcessor implements I
     @Option(name = "--roles", metaVar = "roles.in.subsystems", usage = "name of the role definition file for role-based tags")
     private File roleFile;
 
+    /** if specified, the tag sets will be packed into a single store file */
+    @Option(name = "--pack", usage = "if specified, the tag sets will be packed into a single binary store file")
+    private boolean packFlag;
+
+    /** number of worker threads */
+    @Option(name = "--workers", metaVar = "16", usage = "number of worker threads for scanning genomes (and loading them, if --parallelLoad is specified)")
+    private int workers;
+
+    /** if specified, the genomes will be loaded on the worker threads */
+    @Option(name = "--parallelLoad", usage = "if specified, genomes will be loaded on the worker threads (requires a thread-safe genome source such as DIR or MASTER)")
+    private boolean parallelLoad;
+
     /** name of the output directory */
     @Argument(index = 1, metaVar = "tagDir", usage = "name of output tag directory", required = true)
     private File tagDir;
@@ -75,6 +93,9 @@ public class BuildTagDirectoryProcessor extends BaseGenomeProcessor implements I
     protected void setSourceDefaults() {
         this.missingFlag = false;
         this.clearFlag = false;
+        this.packFlag = false;
+        this.parallelLoad = false;
+        this.workers = 1;
         this.scanType = FeatureScanner.Type.ROLE;
         this.setLevel(P3Genome.Details.STRUCTURE_ONLY);
         this.roleFile = new File(System.getProperty("user.dir"), "roles.in.subsystems");
@@ -82,6 +103,8 @@ public class BuildTagDirectoryProcessor extends BaseGenomeProcessor implements I
 
     @Override
     protected void validateSourceParms() throws IOException, ParseFailureException {
+        if (this.workers < 1)
+            throw new ParseFailureException("Worker count must be at least 1.");
         // if the tag directory exists and we are clearing, erase it here.
         if (this.tagDir.isDirectory() && this.clearFlag) {
             log.info("Erasing output tag directory {}.", this.tagDir);
@@ -95,24 +118,48 @@ public class BuildTagDirectoryProcessor extends BaseGenomeProcessor implements I
 
     @Override
     protected void runCommand() throws Exception {
-        // Loop through the genomes in the source.
+        // Get the genomes in the source, filtering out the ones we can skip.
         Set<String> genomeIds = this.getGenomeIds();
-        final int nGenomes = genomeIds.size();
-        int gCount = 0;
+        List<String> toProcess = new ArrayList<String>(genomeIds.size());
         int skipped = 0;
         for (String genomeId : genomeIds) {
-            gCount++;
             if (this.missingFlag && this.tagController.isInDirectory(genomeId)) {
-                // Here we can skip this genome.
                 log.info("Genome {} already in output directory.", genomeId);
                 skipped++;
-            } else {
+            } else
+                toProcess.add(genomeId);
+        }
+        final int nGenomes = toProcess.size();
+        if (this.workers == 1) {
+            int gCount = 0;
+            for (String genomeId : toProcess) {
+                gCount++;
                 log.info("Processing genome {} of {}: {}.", gCount, nGenomes, genomeId);
-                Genome genome = this.getGenome(genomeId);
-                this.tagController.addGenome(genome, this.scanner);
+                this.processGenome(genomeId);
             }
+        } else {
+            // The genomes are scanned by the workers.  They are loaded on this thread unless the source is safe
+            // for concurrent loading.
+            GenomeWorkPool pool = new GenomeWorkPool(this.workers);
+            pool.setParallelLoad(this.parallelLoad);
+            pool.run(toProcess, this::getGenome, x -> this.tagController.addGenome(x, this.scanner));
         }
-        log.info("All done. {} genomes processed, {} skipped.", gCount, skipped);
+        if (this.packFlag)
+            this.tagController.pack();
+        this.tagController.close();
+        log.info("All done. {} genomes processed, {} skipped.", nGenomes, skipped);
+    }
+
+    /**
+     * Load a genome and add its tags to the tag directory.
+     *
+     * @param genomeId	ID of the genome to process
+     *
+     * @throws IOException
+     */
+    private void processGenome(String genomeId) throws IOException {
+        Genome genome = this.getGenome(genomeId);
+        this.tagController.addGenome(genome, this.scanner);
     }
 
     @Override
@@ -31,6 +31,8 @@ import org.theseed.taxonomy.TaxonListDirectory;
  * -t	genome source type (default DIR)
  *
  * --clear		erase the output directory before processing
+ * --workers	number of worker threads for loading genomes (default 1; more than one worker requires
+ * 				a genome source that is safe for concurrent loading)
  *
  * @author Bruce Parrello
  *
@@ -49,6 +51,10 @@ public class BuildTaxonomyListProcessor extends BaseGenomeProcessor {
     @Option(name = "--clear", usage = "if specified, the output directory will be erased before processing")
     private boolean clearFlag;
 
+    /** number of worker threads */
+    @Option(name = "--workers", metaVar = "8", usage = "number of worker threads for loading genomes (requires a thread-safe genome source)")
+    private int workers;
+
     /** output directory name */
     @Argument(index = 1, metaVar = "outDir", usage = "output directory name")
     private File outDir;
@@ -56,11 +62,14 @@ public class BuildTaxonomyListProcessor extends BaseGenomeProcessor {
     @Override
     protected void setSourceDefaults() {
         this.clearFlag = false;
+        this.workers = 1;
         this.setLevel(P3Genome.Details.STRUCTURE_ONLY);
     }
 
     @Override
     protected void validateSourceParms() throws IOException, ParseFailureException {
+        if (this.workers < 1)
+            throw new ParseFailureException("Worker count must be at least 1.");
         if (this.outDir.isDirectory() && this.clearFlag) {
             // Here we need to erase the output directory.
             log.info("Erasing output directory {}.", this.outDir);
@@ -72,7 +81,7 @@ public class BuildTaxonomyListProcessor extends BaseGenomeProcessor {
     @Override
     protected void runCommand() throws Exception {
         // Update the directory with the genomes in the source.
-        this.taxDir.updateRankMaps(this.getSource());
+        this.taxDir.updateRankMaps(this.getSource(), this.workers);
     }
 
 }
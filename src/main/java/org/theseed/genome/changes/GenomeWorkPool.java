@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package org.theseed.genome.changes;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.Genome;
+
+/**
+ * This object processes genomes on a pool of worker threads.  By default, the genomes are loaded one at a time on the
+ * calling thread, since most genome sources are not safe to use from multiple threads, and each loaded genome is
+ * handed to a worker.  For a source that can load genomes concurrently (such as a genome directory), parallel
+ * loading can be turned on, in which case each worker loads its own genome, so that the parsing is spread across
+ * the workers as well.  Either way, the number of genomes in flight is limited to twice the number of workers, so
+ * the memory used by loaded genomes stays bounded.
+ *
+ * If a worker fails, no more genomes are loaded, and the first failure is thrown to the caller after the workers
+ * have stopped.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeWorkPool {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(GenomeWorkPool.class);
+    /** number of worker threads */
+    private int workers;
+    /** TRUE if the genomes are loaded on the worker threads */
+    private boolean parallelLoad;
+
+    /**
+     * This interface loads a genome.  It is only called from the thread running the pool, unless parallel loading
+     * is turned on.
+     */
+    public interface ILoader {
+
+        /**
+         * @return the genome with the specified ID
+         *
+         * @param genomeId	ID of the genome to load
+         *
+         * @throws IOException
+         */
+        public Genome load(String genomeId) throws IOException;
+
+    }
+
+    /**
+     * This interface processes a loaded genome.  It is called from the worker threads.
+     */
+    public interface IWorker {
+
+        /**
+         * Process a genome.
+         *
+         * @param genome	genome to process
+         *
+         * @throws Exception
+         */
+        public void process(Genome genome) throws Exception;
+
+    }
+
+    /**
+     * Create a genome work pool.
+     *
+     * @param workers	number of worker threads to use
+     */
+    public GenomeWorkPool(int workers) {
+        this.workers = workers;
+        this.parallelLoad = false;
+    }
+
+    /**
+     * Specify whether the genomes should be loaded on the worker threads.  This should only be turned on if the
+     * loader is safe to call from multiple threads at once.
+     *
+     * @param parallelLoad	TRUE to load the genomes on the worker threads, FALSE to load them on the calling thread
+     */
+    public void setParallelLoad(boolean parallelLoad) {
+        this.parallelLoad = parallelLoad;
+    }
+
+    /**
+     * Load and process a collection of genomes.
+     *
+     * @param genomeIds		IDs of the genomes to process
+     * @param loader		method for loading a genome
+     * @param worker		method for processing a loaded genome
+     *
+     * @throws Exception
+     */
+    public void run(Collection<String> genomeIds, ILoader loader, IWorker worker) throws Exception {
+        final int nGenomes = genomeIds.size();
+        log.info("Processing {} genomes using {} workers with {} loading.", nGenomes, this.workers,
+                (this.parallelLoad ? "parallel" : "serial"));
+        ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+        Semaphore inFlight = new Semaphore(this.workers * 2);
+        AtomicInteger gCount = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        try {
+            for (String genomeId : genomeIds) {
+                inFlight.acquire();
+                // Stop loading if a worker has failed.
+                if (failure.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+                final Genome loaded = (this.parallelLoad ? null : loader.load(genomeId));
+                pool.execute(() -> {
+                    try {
+                        Genome genome = (this.parallelLoad ? loader.load(genomeId) : loaded);
+                        if (genome == null)
+                            throw new IOException("Genome " + genomeId + " could not be loaded from the genome source.");
+                        worker.process(genome);
+                        log.info("Processed genome {} of {}: {}.", gCount.incrementAndGet(), nGenomes, genome);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        Throwable e = failure.get();
+        if (e instanceof Error)
+            throw (Error) e;
+        else if (e != null)
+            throw (Exception) e;
+    }
+
+}
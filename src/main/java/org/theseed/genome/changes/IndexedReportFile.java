@@ -0,0 +1,258 @@
+/**
+ *
+ */
+package org.theseed.genome.changes;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This object manages a consolidated report file with an offset index.  The report file is a tab-delimited file
+ * with a single header line, followed by the data lines for each key (generally a genome ID), grouped together.  The
+ * index file is a tab-delimited file with one line per key, containing the key, the byte offset of the key's first
+ * data line in the report file, and the byte length of the key's data lines.  Once the index is loaded, the lines for
+ * any one key can be read with a single positional read.
+ *
+ * Once opened, the report file is read-only and thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class IndexedReportFile implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(IndexedReportFile.class);
+    /** name of the report file */
+    private File fileName;
+    /** file channel for the report file */
+    private FileChannel channel;
+    /** header line of the report */
+    private String header;
+    /** map of keys to offset/length pairs */
+    private Map<String, long[]> index;
+    /** line break pattern */
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r?\\n");
+    /** empty line list */
+    private static final List<String> NO_LINES = Collections.emptyList();
+
+    /**
+     * This object writes an indexed report file.  The lines for each key are added in a single call, and the calls
+     * can come from multiple threads.  The report is written under a temporary name.  The index is written and both
+     * files are moved into place only when the writer is committed; closing an uncommitted writer deletes the
+     * partial output, so a failed run never leaves behind an index for an incomplete report.
+     */
+    public static class Writer implements AutoCloseable {
+
+        /** output report file name */
+        private File outFile;
+        /** output index file name */
+        private File indexFile;
+        /** temporary report file name */
+        private File tempFile;
+        /** temporary index file name */
+        private File tempIndexFile;
+        /** output stream */
+        private OutputStream outStream;
+        /** current output position */
+        private long position;
+        /** list of keys, in the order written */
+        private List<String> keys;
+        /** list of data positions, in the order written */
+        private List<Long> positions;
+        /** list of data lengths, in the order written */
+        private List<Integer> lengths;
+        /** TRUE if the report has been committed */
+        private boolean committed;
+
+        /**
+         * Open an indexed report file for output.
+         *
+         * @param outFile		name of the report file
+         * @param indexFile		name of the index file
+         * @param header		header line for the report
+         *
+         * @throws IOException
+         */
+        public Writer(File outFile, File indexFile, String header) throws IOException {
+            this.outFile = outFile;
+            this.indexFile = indexFile;
+            this.tempFile = new File(outFile.getParentFile(), outFile.getName() + ".tmp");
+            this.tempIndexFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+            this.outStream = new BufferedOutputStream(new FileOutputStream(this.tempFile));
+            this.committed = false;
+            this.position = 0;
+            this.keys = new ArrayList<String>();
+            this.positions = new ArrayList<Long>();
+            this.lengths = new ArrayList<Integer>();
+            this.write(header + System.lineSeparator());
+        }
+
+        /**
+         * Write a string to the report file and update the position.
+         *
+         * @param text		text to write
+         *
+         * @return the number of bytes written
+         *
+         * @throws IOException
+         */
+        private int write(String text) throws IOException {
+            byte[] buffer = text.getBytes(StandardCharsets.UTF_8);
+            this.outStream.write(buffer);
+            this.position += buffer.length;
+            return buffer.length;
+        }
+
+        /**
+         * Add the data lines for a key.
+         *
+         * @param key		key for the lines (generally a genome ID)
+         * @param lines		data lines, each terminated by a line separator
+         *
+         * @throws IOException
+         */
+        public synchronized void add(String key, String lines) throws IOException {
+            this.keys.add(key);
+            this.positions.add(this.position);
+            this.lengths.add(this.write(lines));
+        }
+
+        /**
+         * Write the index and install the report and index files.
+         *
+         * @throws IOException
+         */
+        public synchronized void commit() throws IOException {
+            this.outStream.close();
+            try (PrintWriter writer = new PrintWriter(this.tempIndexFile)) {
+                writer.println("key\toffset\tlength");
+                final int n = this.keys.size();
+                for (int i = 0; i < n; i++)
+                    writer.println(this.keys.get(i) + "\t" + this.positions.get(i) + "\t" + this.lengths.get(i));
+            }
+            Files.move(this.tempFile.toPath(), this.outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(this.tempIndexFile.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            this.committed = true;
+            log.info("{} keys written to indexed report {}.", this.keys.size(), this.outFile);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (! this.committed) {
+                // Here the report is incomplete, so we throw it away.
+                this.outStream.close();
+                FileUtils.deleteQuietly(this.tempFile);
+                FileUtils.deleteQuietly(this.tempIndexFile);
+            }
+        }
+
+    }
+
+    /**
+     * Open an existing indexed report file.
+     *
+     * @param reportFile	name of the report file
+     * @param indexFile		name of the index file
+     *
+     * @throws IOException
+     */
+    public IndexedReportFile(File reportFile, File indexFile) throws IOException {
+        this.fileName = reportFile;
+        // Read the index.
+        this.index = new HashMap<String, long[]>();
+        try (TabbedLineReader indexStream = new TabbedLineReader(indexFile)) {
+            for (var line : indexStream)
+                this.index.put(line.get(0), new long[] { Long.parseLong(line.get(1)), line.getInt(2) });
+        }
+        this.channel = FileChannel.open(reportFile.toPath());
+        // Read the header.  It ends where the first data line begins.
+        long headerEnd = this.channel.size();
+        for (long[] entry : this.index.values())
+            headerEnd = Math.min(headerEnd, entry[0]);
+        this.header = StringUtils.chomp(this.read(0, (int) headerEnd));
+        log.info("{} keys found in indexed report {}.", this.index.size(), reportFile);
+    }
+
+    /**
+     * Read a section of the report file.
+     *
+     * @param position		starting byte offset
+     * @param length		number of bytes to read
+     *
+     * @return the section read, as a string
+     *
+     * @throws IOException
+     */
+    private String read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = this.channel.read(buffer, pos);
+            if (n < 0)
+                throw new IOException("Unexpected end of file in indexed report " + this.fileName + ".");
+            pos += n;
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the data lines for a key, or an empty list if the key has no lines
+     *
+     * @param key	key of interest (generally a genome ID)
+     *
+     * @throws IOException
+     */
+    public List<String> getLines(String key) throws IOException {
+        List<String> retVal = NO_LINES;
+        long[] entry = this.index.get(key);
+        if (entry != null && entry[1] > 0) {
+            String text = StringUtils.chomp(this.read(entry[0], (int) entry[1]));
+            retVal = Arrays.asList(LINE_BREAK.split(text));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the header line of the report
+     */
+    public String getHeader() {
+        return this.header;
+    }
+
+    /**
+     * @return the set of keys in the report
+     */
+    public Set<String> getKeys() {
+        return this.index.keySet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
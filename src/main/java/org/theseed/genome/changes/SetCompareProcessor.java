@@ -113,7 +113,11 @@ public class SetCompareProcessor extends BaseReportProcessor {
     @Override
     protected void runReporter(PrintWriter writer) throws Exception {
         // Process the comparison.
-        this.compareEngine.produceDiffReport(writer, genomeSet1, genomeSet2);
+        try {
+            this.compareEngine.produceDiffReport(writer, genomeSet1, genomeSet2);
+        } finally {
+            this.tagDir.close();
+        }
     }
 
 }
@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package org.theseed.genome.changes;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.protein.tags.SyntheticTagGenerator;
+import org.theseed.protein.tags.TagDirectory;
+import org.theseed.taxonomy.TaxonListDirectory;
+
+/**
+ * This command generates a synthetic tag directory and a matching taxon list directory for scale testing.  The
+ * genomes are arranged in a regular taxonomic tree, and the tags are a mix of lineage-specific core tags and
+ * background tags drawn from the vocabulary with Zipfian frequencies.  The output directories can be used with
+ * the taxonCompare and setCompare commands.
+ *
+ * The positional parameters are the names of the output tag directory and the output taxon list directory.  Both
+ * are erased before processing.
+ *
+ * The command-line options are as follows:
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ * -n	number of genomes to generate (default 1000)
+ *
+ * --vocab		number of distinct tags (default 100000)
+ * --fanOut		comma-delimited list of taxonomic fan-outs, starting with the top rank; the last one is used for
+ * 				any remaining ranks (default 4)
+ * --tags		number of background tag draws per genome (default 1000)
+ * --core		number of core tags per taxonomic grouping (default 20)
+ * --zipf		Zipf exponent for background tag frequencies, 0 for uniform (default 1.0)
+ * --seed		random number seed (default 42)
+ * --pack		pack the tag sets into a single binary store file when done
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SyntheticDataProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SyntheticDataProcessor.class);
+    /** taxonomic fan-outs */
+    private int[] fanOuts;
+
+    // COMMAND-LINE OPTIONS
+
+    /** number of genomes to generate */
+    @Option(name = "--num", aliases = { "-n" }, metaVar = "100000", usage = "number of genomes to generate")
+    private int nGenomes;
+
+    /** number of distinct tags */
+    @Option(name = "--vocab", metaVar = "50000", usage = "number of distinct tags")
+    private int vocabSize;
+
+    /** taxonomic fan-outs */
+    @Option(name = "--fanOut", metaVar = "2,10,5", usage = "comma-delimited list of taxonomic fan-outs, starting with the top rank")
+    private String fanOutString;
+
+    /** number of background tag draws per genome */
+    @Option(name = "--tags", metaVar = "2000", usage = "number of background tag draws per genome")
+    private int genomeTags;
+
+    /** number of core tags per grouping */
+    @Option(name = "--core", metaVar = "10", usage = "number of core tags per taxonomic grouping")
+    private int coreTags;
+
+    /** Zipf exponent for background tags */
+    @Option(name = "--zipf", metaVar = "1.2", usage = "Zipf exponent for background tag frequencies (0 for uniform)")
+    private double zipfExponent;
+
+    /** random number seed */
+    @Option(name = "--seed", metaVar = "12345", usage = "random number seed")
+    private long seed;
+
+    /** if specified, the tag sets will be packed into a single store file */
+    @Option(name = "--pack", usage = "if specified, the tag sets will be packed into a single binary store file")
+    private boolean packFlag;
+
+    /** name of the output tag directory */
+    @Argument(index = 0, metaVar = "tagDir", usage = "name of output tag directory", required = true)
+    private File tagDirName;
+
+    /** name of the output taxon list directory */
+    @Argument(index = 1, metaVar = "taxDir", usage = "name of output taxon list directory", required = true)
+    private File taxDirName;
+
+    @Override
+    protected void setDefaults() {
+        this.nGenomes = 1000;
+        this.vocabSize = 100000;
+        this.fanOutString = "4";
+        this.genomeTags = 1000;
+        this.coreTags = 20;
+        this.zipfExponent = 1.0;
+        this.seed = 42L;
+        this.packFlag = false;
+    }
+
+    @Override
+    protected void validateParms() throws IOException, ParseFailureException {
+        if (this.nGenomes < 1)
+            throw new ParseFailureException("Genome count must be at least 1.");
+        if (this.vocabSize < 1)
+            throw new ParseFailureException("Vocabulary size must be at least 1.");
+        if (this.genomeTags < 0 || this.coreTags < 0)
+            throw new ParseFailureException("Tag counts cannot be negative.");
+        if (this.zipfExponent < 0.0)
+            throw new ParseFailureException("Zipf exponent cannot be negative.");
+        // Parse the fan-outs.
+        String[] pieces = this.fanOutString.split(",");
+        this.fanOuts = new int[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            try {
+                this.fanOuts[i] = Integer.parseInt(pieces[i].trim());
+            } catch (NumberFormatException e) {
+                throw new ParseFailureException("Invalid fan-out \"" + pieces[i] + "\".");
+            }
+            if (this.fanOuts[i] < 1)
+                throw new ParseFailureException("Fan-out values must be at least 1.");
+        }
+        // Erase the output directories.
+        for (File dir : new File[] { this.tagDirName, this.taxDirName }) {
+            if (dir.isDirectory()) {
+                log.info("Erasing output directory {}.", dir);
+                FileUtils.cleanDirectory(dir);
+            }
+        }
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        SyntheticTagGenerator generator = new SyntheticTagGenerator(this.nGenomes, this.vocabSize, this.seed);
+        generator.setFanOut(this.fanOuts);
+        generator.setGenomeTags(this.genomeTags);
+        generator.setCoreTags(this.coreTags);
+        generator.setZipfExponent(this.zipfExponent);
+        int[] rankSizes = generator.getRankSizes();
+        for (int r = 0; r < rankSizes.length; r++)
+            log.info("{} groupings at rank {}.", rankSizes[r], TaxonListDirectory.RANKS[r]);
+        // Generate the taxonomy.
+        TaxonListDirectory taxDir = new TaxonListDirectory(this.taxDirName);
+        generator.fillTaxonDirectory(taxDir);
+        // Generate the tag sets.
+        try (TagDirectory tagDir = new TagDirectory(this.tagDirName)) {
+            long start = System.currentTimeMillis();
+            int tagsUsed = generator.fillTagDirectory(tagDir);
+            log.info("{} genomes generated in {} seconds.  {} distinct tags used.", this.nGenomes,
+                    (System.currentTimeMillis() - start) / 1000.0, tagsUsed);
+            if (this.packFlag)
+                tagDir.pack();
+        }
+        log.info("All done.");
+    }
+
+}
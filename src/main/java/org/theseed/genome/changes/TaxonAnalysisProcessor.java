@@ -3,6 +3,7 @@
  */
 package org.theseed.genome.changes;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -34,6 +35,12 @@ import org.theseed.protein.tags.TaxonCompare;
  *
  * --absent		maximum fraction of genomes in a set that can have an absent tag (default 0.2)
  * --present	minimum fraction of genomes in a set that can have a present tag (default 0.8)
+ * --memory		load all the tag sets into memory as bitmaps before comparing
+ * --bottomUp	aggregate tag counts bottom-up through the taxonomy tree, reading each genome's tags only once
+ * --countCache	cache grouping tag counts in the taxonomic list directory, reusing them while the tags and taxonomy are unchanged
+ * --cache		megabytes of memory to use for caching tag sets loaded from files (default 500, 0 to disable)
+ * --workers	number of worker threads for processing sibling sets (default is the number of processors)
+ * --maxLarge	maximum number of large sibling sets to process at once (default 2)
  *
  * @author Bruce Parrello
  *
@@ -45,6 +52,8 @@ public class TaxonAnalysisProcessor extends BaseReportProcessor {
     protected static Logger log = LoggerFactory.getLogger(TaxonAnalysisProcessor.class);
     /** taxonomic comparison engine */
     private TaxonCompare compareEngine;
+    /** size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
 
     // COMMAND-LINE OPTIONS
 
@@ -56,6 +65,30 @@ public class TaxonAnalysisProcessor extends BaseReportProcessor {
     @Option(name = "--present", metaVar = "0.9", usage = "minimum fraction of genomes in a set that can have a present tag")
     private double minPresent;
 
+    /** if specified, the tag sets will be held in memory */
+    @Option(name = "--memory", usage = "if specified, all tag sets will be loaded into memory as bitmaps")
+    private boolean memoryFlag;
+
+    /** if specified, tag counts will be aggregated bottom-up */
+    @Option(name = "--bottomUp", usage = "if specified, tag counts will be aggregated bottom-up through the taxonomy tree")
+    private boolean bottomUpFlag;
+
+    /** if specified, grouping tag counts will be saved and reused */
+    @Option(name = "--countCache", usage = "if specified, grouping tag counts will be cached in the taxonomic list directory for reuse")
+    private boolean countCacheFlag;
+
+    /** memory budget for the tag set cache, in megabytes */
+    @Option(name = "--cache", metaVar = "1000", usage = "megabytes of memory for caching tag sets (0 to disable)")
+    private int cacheSize;
+
+    /** number of worker threads */
+    @Option(name = "--workers", metaVar = "8", usage = "number of worker threads for processing sibling sets")
+    private int workers;
+
+    /** maximum number of large sibling sets in flight */
+    @Option(name = "--maxLarge", metaVar = "4", usage = "maximum number of large sibling sets to process at once")
+    private int maxLarge;
+
     /** name of the taxonomic list directory */
     @Argument(index = 0, metaVar = "taxDir", usage = "name of the taxonomic list directory", required = true)
     private File taxDir;
@@ -68,31 +101,52 @@ public class TaxonAnalysisProcessor extends BaseReportProcessor {
     protected void setReporterDefaults() {
         this.maxAbsent = 0.2;
         this.minPresent = 0.8;
+        this.memoryFlag = false;
+        this.cacheSize = 500;
+        this.bottomUpFlag = false;
+        this.countCacheFlag = false;
+        this.workers = Runtime.getRuntime().availableProcessors();
+        this.maxLarge = 2;
     }
 
     @Override
     protected void validateReporterParms() throws IOException, ParseFailureException {
+        if (this.cacheSize < 0)
+            throw new ParseFailureException("Cache size cannot be negative.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Worker count must be at least 1.");
+        if (this.maxLarge < 1)
+            throw new ParseFailureException("Large sibling set limit must be at least 1.");
         // Set up the comparison engine.  This also does all the validation.
         this.compareEngine = new TaxonCompare(this.taxDir, this.tagDir, this.maxAbsent, this.minPresent);
+        if (this.memoryFlag)
+            this.compareEngine.getTagDirectory().loadBitMaps();
+        else
+            this.compareEngine.getTagDirectory().setCacheLimit(this.cacheSize * 1024L * 1024L);
+        this.compareEngine.setBottomUp(this.bottomUpFlag);
+        this.compareEngine.setCountCache(this.countCacheFlag);
+        this.compareEngine.setWorkers(this.workers);
+        this.compareEngine.setMaxLarge(this.maxLarge);
     }
 
     @Override
     protected void runReporter(PrintWriter writer) throws Exception {
-        // Get the differentiating tags from as many taxonomic groupings as we can.
+        // Retrieve the group names.  We need these up front, because the report is written as the results come in.
+        Set<Integer> taxIds = this.compareEngine.getComparedGroups();
+        log.info("Retrieving group names for {} taxonomic IDs.", taxIds.size());
+        Map<Integer, String> nameMap = this.compareEngine.getNameMap(taxIds);
+        // Get the differentiating tags from as many taxonomic groupings as we can.  Each grouping's line is written
+        // as soon as its sibling set is done, so the results never have to be held in memory all at once.  The sink
+        // is called from multiple threads, but each line is written by a single synchronized println.
         log.info("Processing differentiation using maxAbsent = {} and minPresent = {}.", this.maxAbsent, this.minPresent);
-        Map<Integer, Set<String>> diffMap = this.compareEngine.computeDistinguishingTags();
-        // Retrieve the group names.
-        log.info("Retrieving group names for {} taxonomic IDs.", diffMap.size());
-        Map<Integer, String> nameMap = this.compareEngine.getNameMap(diffMap.keySet());
-        // Now write the output report.
-        log.info("Writing report.");
-        writer.println("tax_id\tname\ttags");
-        for (var diffEntry : diffMap.entrySet()) {
-            int taxId = diffEntry.getKey();
+        PrintWriter outStream = new PrintWriter(new BufferedWriter(writer, BUFFER_SIZE));
+        outStream.println("tax_id\tname\ttags");
+        this.compareEngine.computeDistinguishingTags((engineIdx, taxId, tagSet) -> {
             String name = nameMap.getOrDefault(taxId, "<< unknown >>");
-            String tags = StringUtils.join(diffEntry.getValue(), ',');
-            writer.println(taxId + "\t" + name + "\t" + tags);
-        }
+            String tags = StringUtils.join(tagSet, ',');
+            outStream.println(taxId + "\t" + name + "\t" + tags);
+        });
+        outStream.flush();
     }
 
 }
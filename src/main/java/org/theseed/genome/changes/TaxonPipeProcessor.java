@@ -6,11 +6,18 @@ package org.theseed.genome.changes;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.FileUtils;
 import org.kohsuke.args4j.Argument;
@@ -18,13 +25,13 @@ import org.kohsuke.args4j.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ParseFailureException;
-import org.theseed.genome.Genome;
 import org.theseed.genome.iterator.BaseGenomeProcessor;
 import org.theseed.protein.tags.GroupCompareEngine;
 import org.theseed.protein.tags.TagDirectory;
 import org.theseed.protein.tags.TaxonCompare;
 import org.theseed.protein.tags.scanner.FeatureScanner;
-import org.theseed.taxonomy.TaxTree;
+import org.theseed.taxonomy.CompiledTaxTree;
+import org.theseed.taxonomy.GenomeLineageTable;
 import org.theseed.taxonomy.TaxonListDirectory;
 
 /**
@@ -37,8 +44,14 @@ import org.theseed.taxonomy.TaxonListDirectory;
  * written for each genome, in a subdirectory with the genome ID as its name.  (This is an odd choice for the
  * sake of a specific project.)  The master output directory is the second positional parameter.
  *
+ * Alternatively, all the genome reports can be written to a single file "changes.tbl" in the output directory, with
+ * the lines for each genome grouped together.  An index file "changes.idx" gives the byte offset and length of each
+ * genome's lines, so they can be read directly (see IndexedReportFile).
+ *
  * A temporary tag directory and a temporary taxonomic tree directory will be used.  The taxonomic tree directory
- * will be re-used if it is nonempty, but the tag directory will always be rebuilt.
+ * will be re-used if it is nonempty, but the tag directory will always be rebuilt.  The genome names and lineages
+ * for the reports are taken from the taxonomic tree directory's lineage table; if the table is missing any of the
+ * genomes, the directory is updated during the genome scan.
  *
  * The command-line options are as follows:
  *
@@ -54,6 +67,12 @@ import org.theseed.taxonomy.TaxonListDirectory;
  * --absent		maximum fraction of genomes in a set that can have an absent tag (default 0.2)
  * --present	minimum fraction of genomes in a set that can have a present tag (default 0.8)
  * --keep		do not erase the tag directory when done
+ * --workers	number of worker threads for scanning genomes, comparing sibling sets, and writing reports (default is the number of processors)
+ * --maxLarge	maximum number of large sibling sets to compare at once (default 2)
+ * --bottomUp	aggregate tag counts bottom-up through the taxonomy tree, reading each genome's tags only once
+ * --countCache	cache grouping tag counts in the taxonomic list directory, reusing them while the tags and taxonomy are unchanged
+ * --cache		megabytes of memory to use for caching tag sets (default 500, 0 to disable)
+ * --combined	write all the genome reports to a single indexed file instead of one directory per genome
  *
  * @author Bruce Parrello
  *
@@ -63,18 +82,26 @@ public class TaxonPipeProcessor extends BaseGenomeProcessor implements FeatureSc
     // FIELDS
     /** logging facility */
     protected static Logger log = LoggerFactory.getLogger(TaxonPipeProcessor.class);
-    /** taxonomy tree controller */
-    private TaxTree taxonTree;
+    /** compiled taxonomy tree */
+    private CompiledTaxTree taxonTree;
     /** tag directory controller */
     private TagDirectory tagController;
     /** taxonomy directory controller */
     private TaxonListDirectory taxController;
     /** feature scanner for tags */
     private FeatureScanner tagScanner;
-    /** map of genome IDs to lineages */
-    private Map<String, int[]> lineageMap;
-    /** map of genome IDs to names */
-    private Map<String, String> gNameMap;
+    /** genome lineage table for the taxonomy directory */
+    private GenomeLineageTable lineageTable;
+    /** TRUE if the taxonomic tree directory must be built */
+    private boolean buildTaxonomy;
+    /** combined report writer, or NULL if there is one report per genome */
+    private IndexedReportFile.Writer combinedWriter;
+    /** name of the report file */
+    public static final String REPORT_FILE_NAME = "changes.tbl";
+    /** name of the combined report index file */
+    public static final String INDEX_FILE_NAME = "changes.idx";
+    /** header line for the report */
+    private static final String REPORT_HEADER = "genome_id\tgenome_name\ttax_id\trank\tname\tparent_id\tparent_rank\tparent_name\ttag_name";
 
     // COMMAND-LINE OPTIONS
 
@@ -110,6 +137,30 @@ public class TaxonPipeProcessor extends BaseGenomeProcessor implements FeatureSc
     @Option(name = "--keep", usage = "if specified, the tag directory will not be erased after processing")
     private boolean keepFlag;
 
+    /** if specified, tag counts will be aggregated bottom-up */
+    @Option(name = "--bottomUp", usage = "if specified, tag counts will be aggregated bottom-up through the taxonomy tree")
+    private boolean bottomUpFlag;
+
+    /** if specified, grouping tag counts will be saved and reused */
+    @Option(name = "--countCache", usage = "if specified, grouping tag counts will be cached in the taxonomic list directory for reuse")
+    private boolean countCacheFlag;
+
+    /** memory budget for the tag set cache, in megabytes */
+    @Option(name = "--cache", metaVar = "1000", usage = "megabytes of memory for caching tag sets (0 to disable)")
+    private int cacheSize;
+
+    /** number of worker threads for scanning and comparing */
+    @Option(name = "--workers", metaVar = "8", usage = "number of worker threads for scanning genomes, comparing sibling sets, and writing reports")
+    private int workers;
+
+    /** maximum number of large sibling sets in flight */
+    @Option(name = "--maxLarge", metaVar = "4", usage = "maximum number of large sibling sets to compare at once")
+    private int maxLarge;
+
+    /** if specified, the reports will be written to a single indexed file */
+    @Option(name = "--combined", usage = "if specified, all genome reports will be written to a single indexed file")
+    private boolean combinedFlag;
+
     /** output directory name */
     @Argument(index = 1, metaVar = "outDir", usage = "master output directory")
     private File outDir;
@@ -126,12 +177,24 @@ public class TaxonPipeProcessor extends BaseGenomeProcessor implements FeatureSc
         this.maxAbsent = 0.2;
         this.minPresent = 0.8;
         this.keepFlag = false;
+        this.cacheSize = 500;
+        this.bottomUpFlag = false;
+        this.countCacheFlag = false;
+        this.workers = Runtime.getRuntime().availableProcessors();
+        this.maxLarge = 2;
+        this.combinedFlag = false;
     }
 
     @Override
     protected void validateSourceParms() throws IOException, ParseFailureException {
         // Validate the tuning parameters.
         GroupCompareEngine.validateTuning(this.maxAbsent, this.minPresent);
+        if (this.cacheSize < 0)
+            throw new ParseFailureException("Cache size cannot be negative.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Worker count must be at least 1.");
+        if (this.maxLarge < 1)
+            throw new ParseFailureException("Large sibling set limit must be at least 1.");
         // Validate the output directory.
         if (this.outDir.isDirectory())
             log.info("Output will be to directory {}.", this.outDir);
@@ -150,109 +213,271 @@ public class TaxonPipeProcessor extends BaseGenomeProcessor implements FeatureSc
             FileUtils.forceMkdir(this.tagDir);
         }
         this.tagController = new TagDirectory(this.tagDir);
-        // Set up the taxon tree directory.
-        if (! this.taxDir.isDirectory()) {
+        this.tagController.setCacheLimit(this.cacheSize * 1024L * 1024L);
+        // Set up the taxon tree directory.  If we are building it, this will be done during the genome scan.
+        this.buildTaxonomy = true;
+        if (! this.taxDir.isDirectory())
             log.info("Creating taxonomic tree directory {}.", this.taxDir);
-            FileUtils.forceMkdir(this.tagDir);
-            this.createTaxDir();
-        } else if (this.clearFlag) {
+        else if (this.clearFlag) {
             log.info("Erasing taxonomic tree directory {}.", this.taxDir);
             FileUtils.cleanDirectory(this.taxDir);
-            this.createTaxDir();
         } else {
             log.info("Taxonomy data will be stored in directory {}.", this.taxDir);
-            this.taxController = new TaxonListDirectory(this.taxDir);
+            this.buildTaxonomy = false;
         }
-        // Get the taxonomy tree itself.
-        this.taxonTree = this.taxController.getTaxTreeObject();
-    }
-
-    /**
-     * This method fills an empty taxonomic list directory with data from the genome source and then
-     * loads its taxonomy tree controller.
-     *
-     * @throws IOException
-     */
-    private void createTaxDir() throws IOException {
         this.taxController = new TaxonListDirectory(this.taxDir);
-        this.taxController.updateRankMaps(this.getSource());
     }
 
     @Override
     protected void runCommand() throws Exception {
         try {
-            // The first step is to fill the tag directory and create the genome lineage map.
+            // The first step is to fill the tag directory.  If necessary, we also build the taxonomy data.
             log.info("Computing tags into {}.", this.tagDir);
             Set<String> genomeIDs = this.getGenomeIds();
-            final int hashSize = genomeIDs.size() * 4 / 3 + 1;
-            this.lineageMap = new HashMap<String, int[]>(hashSize);
-            this.gNameMap = new HashMap<String, String>(hashSize);
-            for (String genomeID : genomeIDs) {
-                Genome genome = this.getGenome(genomeID);
-                log.info("Scanning for tags in {}.", genome);
-                this.tagController.addGenome(genome, this.tagScanner);
-                this.lineageMap.put(genomeID, genome.getLineage());
-                this.gNameMap.put(genomeID, genome.getName());
+            // The genome names and lineages come from the taxonomy directory.  If it is missing any of our
+            // genomes, we update it during the scan.
+            if (! this.buildTaxonomy) {
+                try (GenomeLineageTable lineages = this.taxController.getLineageTable()) {
+                    if (! lineages.getGenomeIds().containsAll(genomeIDs)) {
+                        log.info("Genome lineage table in {} is incomplete.  Taxonomy data will be updated.", this.taxDir);
+                        this.buildTaxonomy = true;
+                    }
+                }
             }
+            this.scanGenomes(genomeIDs);
+            this.lineageTable = this.taxController.getLineageTable();
+            // Get the taxonomy tree itself.
+            this.taxonTree = this.taxController.getCompiledTree();
             Map<Integer, Set<String>> diffMap = this.doCompare();
             // We need a map of taxonomic names.
             Map<Integer, String> nameMap = this.getNameMap(diffMap.keySet());
-            // Now we loop through the genomes again.  For each genome, we get its role set and its
-            // taxonomy list, and then we query the differentiation map to create an output report.
-            for (String genomeId : genomeIDs) {
-                String genomeName = this.gNameMap.get(genomeId);
-                log.info("Processing differentials for genome {} {}.", genomeId, genomeName);
-                // Create the output file.
-                File genomeDir = new File(this.outDir, genomeId);
-                if (! genomeDir.isDirectory())
-                    FileUtils.forceMkdir(genomeDir);
-                try (PrintWriter writer = new PrintWriter(new File(genomeDir, "changes.tbl"))) {
-                    writer.println("genome_id\tgenome_name\ttax_id\trank\tname\tparent_id\tparent_rank\tparent_name\ttag_name");
-                    // Now get all the tags for the genome.  This is already in the tag directory.  The
-                    // set we get back is a private copy, which is good because we are going to mess
-                    // it up.
-                    Set<String> genomeTags = this.tagController.getGenome(genomeId);
-                    // Now we loop through the lineage.  For each taxonomic group, we get the differentiating
-                    // tags, and output the ones found in this genome.  We will be moving from the smallest
-                    // grouping to the largest.
-                    int[] lineage = this.lineageMap.get(genomeId);
-                    for (int i = lineage.length - 1; i >= 0; i--) {
-                        int taxId = lineage[i];
-                        int parentId = this.taxonTree.getParent(taxId);
-                        // Only proceed if we have a known parent grouping.
-                        if (parentId >= 0) {
-                            // Get the roles for this child grouping.
-                            Set<String> diffTags = diffMap.get(taxId);
-                            if (diffTags != null) {
-                                // Find the overlapping tags.
-                                Set<String> myTags = diffTags.stream().filter(x -> genomeTags.contains(x)).collect(Collectors.toSet());
-                                if (! myTags.isEmpty()) {
-                                    // Here we have differentiating tags for this genome and this tax ID.
-                                    String taxRank = this.taxController.getRank(taxId);
-                                    String taxName = nameMap.getOrDefault(taxId, "<unknown>");
-                                    String parentRank = this.taxController.getRank(parentId);
-                                    String parentName = nameMap.getOrDefault(parentId, "<unknown>");
-                                    String taxPrefix = genomeId + "\t" + genomeName + "\t" + taxId + "\t" + taxRank + "\t" + taxName
-                                            + "\t" + parentId + "\t" + parentRank + "\t" + parentName + "\t";
-                                    // Write one line per tag, deleting tags as we use them.
-                                    for (String tag : myTags) {
-                                        writer.println(taxPrefix + tagScanner.getTagName(tag));
-                                        genomeTags.remove(tag);
-                                    }
-                                }
+            // Now we write the genome reports.  For each genome, we get its role set and its taxonomy list,
+            // and then we query the differentiation map to create an output report.
+            this.writeReports(genomeIDs, diffMap, nameMap);
+        } finally {
+            if (this.lineageTable != null)
+                this.lineageTable.close();
+            if (! this.keepFlag) {
+                log.info("Erasing tag directory {}.", this.tagDir);
+                FileUtils.cleanDirectory(this.tagDir);
+            }
+        }
+    }
+
+    /**
+     * Write the output reports for all the genomes.  The genomes are processed in parallel on a pool of worker
+     * threads.  The maps and the taxonomy data are only read during this phase, so the workers can share them
+     * safely.  Each genome's report is written by a single worker, so its content is the same as in a serial run.
+     *
+     * The difference map is inverted into a map from each tag to the taxonomic groupings it distinguishes, so that
+     * each genome only has to look at its own tags.
+     *
+     * @param genomeIDs		set of IDs for the genomes to report
+     * @param diffMap		map of taxonomic IDs to distinguishing tags
+     * @param nameMap		map of taxonomic IDs to names
+     *
+     * @throws Exception
+     */
+    private void writeReports(Set<String> genomeIDs, Map<Integer, Set<String>> diffMap, Map<Integer, String> nameMap)
+            throws Exception {
+        final Map<String, Set<Integer>> tagIndex = Collections.unmodifiableMap(invertDiffMap(diffMap));
+        final Map<Integer, String> names = Collections.unmodifiableMap(nameMap);
+        if (this.combinedFlag) {
+            File reportFile = new File(this.outDir, REPORT_FILE_NAME);
+            log.info("Writing combined report to {}.", reportFile);
+            this.combinedWriter = new IndexedReportFile.Writer(reportFile, new File(this.outDir, INDEX_FILE_NAME), REPORT_HEADER);
+        }
+        try {
+            ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+            AtomicReference<Exception> failure = new AtomicReference<Exception>();
+            try {
+                for (String genomeId : genomeIDs) {
+                    pool.execute(() -> {
+                        // Once a report has failed, we skip the rest.
+                        if (failure.get() == null) {
+                            try {
+                                this.writeReport(genomeId, tagIndex, names);
+                            } catch (Exception e) {
+                                failure.compareAndSet(null, e);
                             }
                         }
-                    }
+                    });
                 }
+            } finally {
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
             }
+            if (failure.get() != null)
+                throw failure.get();
+            // All the reports succeeded, so the combined report can be installed.
+            if (this.combinedWriter != null)
+                this.combinedWriter.commit();
         } finally {
-            if (! this.keepFlag) {
-                log.info("Erasing tag directory {}.", this.tagDir);
-                FileUtils.cleanDirectory(this.tagDir);
+            // This discards the combined report if it was not committed.
+            if (this.combinedWriter != null)
+                this.combinedWriter.close();
+        }
+    }
+
+    /**
+     * Invert a difference map.
+     *
+     * @param diffMap		map of taxonomic IDs to distinguishing tags
+     *
+     * @return a map from each distinguishing tag to the IDs of the taxonomic groupings it distinguishes
+     */
+    protected static Map<String, Set<Integer>> invertDiffMap(Map<Integer, Set<String>> diffMap) {
+        Map<String, Set<Integer>> retVal = new HashMap<String, Set<Integer>>();
+        for (var diffEntry : diffMap.entrySet()) {
+            Integer taxId = diffEntry.getKey();
+            for (String tag : diffEntry.getValue())
+                retVal.computeIfAbsent(tag, x -> new HashSet<Integer>()).add(taxId);
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the output report for a single genome.  In combined mode, the report lines are built in memory and
+     * added to the combined report as a unit, so they stay together.
+     *
+     * @param genomeId		ID of the genome to report
+     * @param tagIndex		map of distinguishing tags to the IDs of the groupings they distinguish
+     * @param nameMap		map of taxonomic IDs to names
+     *
+     * @throws IOException
+     */
+    private void writeReport(String genomeId, Map<String, Set<Integer>> tagIndex, Map<Integer, String> nameMap)
+            throws IOException {
+        GenomeLineageTable.GenomeData genomeData = this.lineageTable.get(genomeId);
+        if (genomeData == null)
+            throw new IOException("Genome " + genomeId + " is not in the lineage table for " + this.taxDir + ".");
+        String genomeName = genomeData.getName();
+        int[] lineage = genomeData.getLineage();
+        log.info("Processing differentials for genome {} {}.", genomeId, genomeName);
+        if (this.combinedWriter != null) {
+            StringWriter buffer = new StringWriter();
+            try (PrintWriter writer = new PrintWriter(buffer)) {
+                this.writeReport(writer, genomeId, genomeName, lineage, tagIndex, nameMap);
+            }
+            this.combinedWriter.add(genomeId, buffer.toString());
+        } else {
+            // Create the output file.
+            File genomeDir = new File(this.outDir, genomeId);
+            if (! genomeDir.isDirectory())
+                FileUtils.forceMkdir(genomeDir);
+            try (PrintWriter writer = new PrintWriter(new File(genomeDir, REPORT_FILE_NAME))) {
+                writer.println(REPORT_HEADER);
+                this.writeReport(writer, genomeId, genomeName, lineage, tagIndex, nameMap);
+            }
+        }
+    }
+
+    /**
+     * Find the tags to report for each grouping in a genome's lineage.  Each of the genome's tags is filed under the
+     * smallest grouping in the lineage that has a known parent and is distinguished by the tag.
+     *
+     * @param genomeTags	set of tags for the genome
+     * @param lineage		taxonomic lineage of the genome, from largest grouping to smallest
+     * @param parents		parent ID for each grouping in the lineage, or -1 if the parent is unknown
+     * @param tagIndex		map of distinguishing tags to the IDs of the groupings they distinguish
+     *
+     * @return a list parallel to the lineage, containing the tags to report for each grouping (NULL if there are none)
+     */
+    protected static List<Set<String>> assignLevelTags(Set<String> genomeTags, int[] lineage, int[] parents,
+            Map<String, Set<Integer>> tagIndex) {
+        List<Set<String>> retVal = new ArrayList<Set<String>>(lineage.length);
+        for (int i = 0; i < lineage.length; i++)
+            retVal.add(null);
+        for (String tag : genomeTags) {
+            Set<Integer> taxa = tagIndex.get(tag);
+            if (taxa != null) {
+                int i = lineage.length - 1;
+                while (i >= 0 && (parents[i] < 0 || ! taxa.contains(lineage[i]))) i--;
+                if (i >= 0) {
+                    Set<String> myTags = retVal.get(i);
+                    if (myTags == null) {
+                        myTags = new HashSet<String>();
+                        retVal.set(i, myTags);
+                    }
+                    myTags.add(tag);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the data lines of the output report for a single genome.  Each of the genome's tags that distinguishes a
+     * grouping in its lineage is reported once, for the smallest such grouping.  The lines are written from the
+     * smallest grouping to the largest.
+     *
+     * @param writer		output writer for the report lines
+     * @param genomeId		ID of the genome to report
+     * @param genomeName	name of the genome to report
+     * @param lineage		taxonomic lineage of the genome, from largest grouping to smallest
+     * @param tagIndex		map of distinguishing tags to the IDs of the groupings they distinguish
+     * @param nameMap		map of taxonomic IDs to names
+     *
+     * @throws IOException
+     */
+    private void writeReport(PrintWriter writer, String genomeId, String genomeName, int[] lineage,
+            Map<String, Set<Integer>> tagIndex, Map<Integer, String> nameMap) throws IOException {
+        // Get all the tags for the genome.  This is already in the tag directory.
+        Set<String> genomeTags = this.tagController.getGenome(genomeId);
+        // Only groupings in the lineage with a known parent can be reported.
+        int[] parents = new int[lineage.length];
+        for (int i = 0; i < lineage.length; i++)
+            parents[i] = this.taxonTree.getParent(lineage[i]);
+        List<Set<String>> levelTags = assignLevelTags(genomeTags, lineage, parents, tagIndex);
+        // Now we loop through the lineage, writing the tags found.  We will be moving from the smallest
+        // grouping to the largest.
+        for (int i = lineage.length - 1; i >= 0; i--) {
+            Set<String> myTags = levelTags.get(i);
+            if (myTags != null) {
+                // Here we have differentiating tags for this genome and this tax ID.
+                int taxId = lineage[i];
+                int parentId = parents[i];
+                String taxRank = this.taxController.getRank(taxId);
+                String taxName = nameMap.getOrDefault(taxId, "<unknown>");
+                String parentRank = this.taxController.getRank(parentId);
+                String parentName = nameMap.getOrDefault(parentId, "<unknown>");
+                String taxPrefix = genomeId + "\t" + genomeName + "\t" + taxId + "\t" + taxRank + "\t" + taxName
+                        + "\t" + parentId + "\t" + parentRank + "\t" + parentName + "\t";
+                // Write one line per tag.
+                for (String tag : myTags)
+                    writer.println(taxPrefix + tagScanner.getTagName(tag));
             }
         }
     }
 
+    /**
+     * Scan all the genomes in the source.  Each genome is loaded once, and then handed to a worker that
+     * computes its tags and (if needed) adds it to the taxonomy data, which records its lineage and name.  The
+     * main thread loads the genomes while the workers process them.  The number of loaded genomes waiting
+     * for a worker is limited to twice the number of workers.
+     *
+     * @param genomeIDs		set of IDs for the genomes to scan
+     *
+     * @throws Exception
+     */
+    private void scanGenomes(Set<String> genomeIDs) throws Exception {
+        final TaxonListDirectory.Updater updater = (this.buildTaxonomy ? this.taxController.getUpdater() : null);
+        try {
+            GenomeWorkPool pool = new GenomeWorkPool(this.workers);
+            pool.run(genomeIDs, this::getGenome, genome -> {
+                this.tagController.addGenome(genome, this.tagScanner);
+                if (updater != null)
+                    updater.add(genome);
+            });
+            // Save the taxonomy data if we built it.  This only happens if all the genomes were scanned.
+            if (updater != null)
+                updater.save();
+        } finally {
+            if (updater != null)
+                updater.close();
+        }
+    }
+
     /**
      * This gets a taxonomic name map for all the taxonomic IDs in the specified set and their parents.
      *
@@ -289,6 +514,10 @@ public class TaxonPipeProcessor extends BaseGenomeProcessor implements FeatureSc
         // Create the comparison engine.
         log.info("Initializing comparison engine.");
         TaxonCompare compareEngine = new TaxonCompare(this.taxController, this.tagController, this.maxAbsent, this.minPresent);
+        compareEngine.setBottomUp(this.bottomUpFlag);
+        compareEngine.setCountCache(this.countCacheFlag);
+        compareEngine.setWorkers(this.workers);
+        compareEngine.setMaxLarge(this.maxLarge);
         // Get a map from taxonomic IDs to distinguishing tags.
         log.info("Performing comparisons.");
         Map<Integer, Set<String>> diffMap = compareEngine.computeDistinguishingTags();
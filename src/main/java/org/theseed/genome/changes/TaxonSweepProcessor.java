@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package org.theseed.genome.changes;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseReportProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.protein.tags.GroupCompareEngine;
+import org.theseed.protein.tags.TaxonCompare;
+
+/**
+ * This command performs a taxonomic differential analysis for multiple threshold settings at once.  It is used to
+ * choose stable absence and presence thresholds.  The tag counts for each taxonomic grouping are computed only once,
+ * and then every threshold setting is applied to them, so the sweep costs little more than a single analysis.
+ *
+ * The positional parameters are the names of the taxonomic list directory and the tag directory, respectively,
+ * followed by one or more threshold settings.  Each threshold setting consists of the maximum absent fraction and
+ * the minimum present fraction separated by a colon (e.g. "0.2:0.8").
+ *
+ * The output report is the same as for TaxonAnalysisProcessor, except there is an additional column containing the
+ * threshold setting, and there is one line for each combination of taxonomic grouping and threshold setting.  The
+ * lines are written as the results are computed, so they are in no particular order.
+ *
+ * The command-line options are as follows:
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ * -o	output file for report (if not STDOUT)
+ *
+ * --memory		load all the tag sets into memory as bitmaps before comparing
+ * --bottomUp	aggregate tag counts bottom-up through the taxonomy tree, reading each genome's tags only once
+ * --countCache	cache grouping tag counts in the taxonomic list directory, reusing them while the tags and taxonomy are unchanged
+ * --cache		megabytes of memory to use for caching tag sets loaded from files (default 500, 0 to disable)
+ * --workers	number of worker threads for processing sibling sets (default is the number of processors)
+ * --maxLarge	maximum number of large sibling sets to process at once (default 2)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TaxonSweepProcessor extends BaseReportProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(TaxonSweepProcessor.class);
+    /** taxonomic comparison engine */
+    private TaxonCompare compareEngine;
+    /** list of group comparison engines, one per threshold setting */
+    private List<GroupCompareEngine> engines;
+    /** size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // COMMAND-LINE OPTIONS
+
+    /** if specified, the tag sets will be held in memory */
+    @Option(name = "--memory", usage = "if specified, all tag sets will be loaded into memory as bitmaps")
+    private boolean memoryFlag;
+
+    /** if specified, tag counts will be aggregated bottom-up */
+    @Option(name = "--bottomUp", usage = "if specified, tag counts will be aggregated bottom-up through the taxonomy tree")
+    private boolean bottomUpFlag;
+
+    /** if specified, grouping tag counts will be saved and reused */
+    @Option(name = "--countCache", usage = "if specified, grouping tag counts will be cached in the taxonomic list directory for reuse")
+    private boolean countCacheFlag;
+
+    /** memory budget for the tag set cache, in megabytes */
+    @Option(name = "--cache", metaVar = "1000", usage = "megabytes of memory for caching tag sets (0 to disable)")
+    private int cacheSize;
+
+    /** number of worker threads */
+    @Option(name = "--workers", metaVar = "8", usage = "number of worker threads for processing sibling sets")
+    private int workers;
+
+    /** maximum number of large sibling sets in flight */
+    @Option(name = "--maxLarge", metaVar = "4", usage = "maximum number of large sibling sets to process at once")
+    private int maxLarge;
+
+    /** name of the taxonomic list directory */
+    @Argument(index = 0, metaVar = "taxDir", usage = "name of the taxonomic list directory", required = true)
+    private File taxDir;
+
+    /** name of the tag directory */
+    @Argument(index = 1, metaVar = "tagDir", usage = "name of the tag directory", required = true)
+    private File tagDir;
+
+    /** threshold settings to use */
+    @Argument(index = 2, metaVar = "0.2:0.8 0.1:0.9 ...", usage = "absent:present threshold settings to sweep", required = true,
+            multiValued = true)
+    private List<String> thresholds;
+
+    @Override
+    protected void setReporterDefaults() {
+        this.memoryFlag = false;
+        this.cacheSize = 500;
+        this.bottomUpFlag = false;
+        this.countCacheFlag = false;
+        this.workers = Runtime.getRuntime().availableProcessors();
+        this.maxLarge = 2;
+    }
+
+    @Override
+    protected void validateReporterParms() throws IOException, ParseFailureException {
+        if (this.cacheSize < 0)
+            throw new ParseFailureException("Cache size cannot be negative.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Worker count must be at least 1.");
+        if (this.maxLarge < 1)
+            throw new ParseFailureException("Large sibling set limit must be at least 1.");
+        // Parse the threshold settings.
+        List<double[]> settings = new ArrayList<double[]>(this.thresholds.size());
+        for (String threshold : this.thresholds) {
+            String[] parts = StringUtils.split(threshold, ':');
+            if (parts.length != 2)
+                throw new ParseFailureException("Threshold setting \"" + threshold + "\" must be two fractions separated by a colon.");
+            try {
+                settings.add(new double[] { Double.parseDouble(parts[0]), Double.parseDouble(parts[1]) });
+            } catch (NumberFormatException e) {
+                throw new ParseFailureException("Threshold setting \"" + threshold + "\" contains an invalid number.");
+            }
+        }
+        // Set up the comparison engine.  This also does all the validation.
+        double[] first = settings.get(0);
+        this.compareEngine = new TaxonCompare(this.taxDir, this.tagDir, first[0], first[1]);
+        this.engines = new ArrayList<GroupCompareEngine>(settings.size());
+        for (double[] setting : settings)
+            this.engines.add(this.compareEngine.createEngine(setting[0], setting[1]));
+        if (this.memoryFlag)
+            this.compareEngine.getTagDirectory().loadBitMaps();
+        else
+            this.compareEngine.getTagDirectory().setCacheLimit(this.cacheSize * 1024L * 1024L);
+        this.compareEngine.setBottomUp(this.bottomUpFlag);
+        this.compareEngine.setCountCache(this.countCacheFlag);
+        this.compareEngine.setWorkers(this.workers);
+        this.compareEngine.setMaxLarge(this.maxLarge);
+    }
+
+    @Override
+    protected void runReporter(PrintWriter writer) throws Exception {
+        // Retrieve the group names.  We need these up front, because the report is written as the results come in.
+        Set<Integer> taxIds = this.compareEngine.getComparedGroups();
+        log.info("Retrieving group names for {} taxonomic IDs.", taxIds.size());
+        Map<Integer, String> nameMap = this.compareEngine.getNameMap(taxIds);
+        // Compute the threshold labels.
+        String[] labels = new String[this.engines.size()];
+        for (int i = 0; i < labels.length; i++) {
+            GroupCompareEngine engine = this.engines.get(i);
+            labels[i] = engine.getMaxAbsent() + ":" + engine.getMinPresent();
+        }
+        // Get the differentiating tags for all the threshold settings, writing each line as soon as it is computed.
+        log.info("Processing differentiation for {} threshold settings.", this.engines.size());
+        PrintWriter outStream = new PrintWriter(new BufferedWriter(writer, BUFFER_SIZE));
+        outStream.println("tax_id\tname\tthreshold\ttags");
+        this.compareEngine.computeDistinguishingTags(this.engines, (engineIdx, taxId, tagSet) -> {
+            String name = nameMap.getOrDefault(taxId, "<< unknown >>");
+            String tags = StringUtils.join(tagSet, ',');
+            outStream.println(taxId + "\t" + name + "\t" + labels[engineIdx] + "\t" + tags);
+        });
+        outStream.flush();
+    }
+
+}
@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This is a tag count map backed by a flat integer array indexed by tag ID.  The tag IDs come from a tag dictionary,
+ * which is generally the one belonging to a tag directory.  Counting, merging, and subtracting are simple array loops,
+ * and no objects are allocated per tag.  The string-based methods of the base class are all supported, but they have to
+ * go through the dictionary, so they are slower.
+ *
+ * A tag whose count is zero is considered to be absent from the map.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ArrayTagCounts extends TagCounts {
+
+    // FIELDS
+    /** dictionary for converting between tags and tag IDs */
+    private final TagDictionary tagDict;
+    /** array of counts, indexed by tag ID */
+    private int[] counts;
+
+    /**
+     * Construct a blank, empty tag count array.
+     *
+     * @param dict		tag dictionary to use for tag IDs
+     */
+    public ArrayTagCounts(TagDictionary dict) {
+        super((Map<String, Count>) null);
+        this.tagDict = dict;
+        this.counts = new int[dict.size()];
+    }
+
+    /**
+     * Construct a tag count array from a pre-built array of counts.  The array becomes the property of
+     * this object.
+     *
+     * @param dict		tag dictionary to use for tag IDs
+     * @param counts	array of counts, indexed by tag ID
+     */
+    public ArrayTagCounts(TagDictionary dict, int[] counts) {
+        super((Map<String, Count>) null);
+        this.tagDict = dict;
+        this.counts = counts;
+    }
+
+    /**
+     * Insure the count array is big enough to hold a specified tag ID.
+     *
+     * @param id	tag ID that must fit in the array
+     */
+    private void ensureCapacity(int id) {
+        if (id >= this.counts.length)
+            this.counts = Arrays.copyOf(this.counts, Math.max(id + 1, this.tagDict.size()));
+    }
+
+    /**
+     * @return TRUE if the other count map is an array map using the same dictionary
+     *
+     * @param other		other tag count map to check
+     */
+    private boolean isCompatible(TagCounts other) {
+        return (other instanceof ArrayTagCounts && ((ArrayTagCounts) other).tagDict == this.tagDict);
+    }
+
+    @Override
+    protected void setCount(String key, int count) {
+        int id = this.tagDict.getId(key);
+        this.ensureCapacity(id);
+        this.counts[id] = count;
+    }
+
+    @Override
+    public int getCount(String key) {
+        int id = this.tagDict.findId(key);
+        return this.getCount(id);
+    }
+
+    /**
+     * @return the count for a tag ID, or 0 if the tag has not been counted
+     *
+     * @param id	ID of the tag of interest
+     */
+    public int getCount(int id) {
+        return (id < 0 || id >= this.counts.length ? 0 : this.counts[id]);
+    }
+
+    @Override
+    public int count(String key, int incr) {
+        int id = this.tagDict.getId(key);
+        return this.count(id, incr);
+    }
+
+    /**
+     * Increment the count for a tag ID by a specified amount and return the new value.
+     *
+     * @param id	ID of the tag to count
+     * @param incr	value by which to increment
+     */
+    public int count(int id, int incr) {
+        this.ensureCapacity(id);
+        this.counts[id] += incr;
+        return this.counts[id];
+    }
+
+    @Override
+    public void count(Collection<String> keys) {
+        for (String key : keys)
+            this.count(key, 1);
+    }
+
+    /**
+     * Increment the counts for a sorted array of tag IDs.
+     *
+     * @param ids	sorted array of IDs for the tags to count
+     */
+    public void count(int[] ids) {
+        if (ids.length > 0) {
+            this.ensureCapacity(ids[ids.length - 1]);
+            final int[] myCounts = this.counts;
+            for (int id : ids)
+                myCounts[id]++;
+        }
+    }
+
+    @Override
+    public void merge(TagCounts other) {
+        if (! this.isCompatible(other))
+            super.merge(other);
+        else {
+            final int[] otherCounts = ((ArrayTagCounts) other).counts;
+            this.ensureCapacity(otherCounts.length - 1);
+            final int[] myCounts = this.counts;
+            for (int i = 0; i < otherCounts.length; i++)
+                myCounts[i] += otherCounts[i];
+        }
+    }
+
+    @Override
+    public TagCounts minus(TagCounts other) {
+        TagCounts retVal;
+        if (! this.isCompatible(other)) {
+            // Here we have to go through the tag strings.
+            int[] newCounts = new int[this.counts.length];
+            for (int i = 0; i < newCounts.length; i++) {
+                if (this.counts[i] != 0)
+                    newCounts[i] = this.counts[i] - other.getCount(this.tagDict.getTag(i));
+            }
+            retVal = new ArrayTagCounts(this.tagDict, newCounts);
+        } else {
+            // Here we can do a straight array subtraction.  As in the base class, tags not in this map
+            // are not affected.
+            final int[] otherCounts = ((ArrayTagCounts) other).counts;
+            final int[] newCounts = this.counts.clone();
+            final int n = Math.min(newCounts.length, otherCounts.length);
+            for (int i = 0; i < n; i++) {
+                if (newCounts[i] != 0)
+                    newCounts[i] -= otherCounts[i];
+            }
+            retVal = new ArrayTagCounts(this.tagDict, newCounts);
+        }
+        return retVal;
+    }
+
+    @Override
+    public Set<String> getTagsInRange(int min, int max) {
+        Set<String> retVal = new HashSet<String>();
+        final int[] myCounts = this.counts;
+        for (int i = 0; i < myCounts.length; i++) {
+            final int count = myCounts[i];
+            if (count != 0 && count >= min && count <= max)
+                retVal.add(this.tagDict.getTag(i));
+        }
+        return retVal;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.counts, 0);
+    }
+
+    @Override
+    public int size() {
+        int retVal = 0;
+        for (int count : this.counts) {
+            if (count != 0) retVal++;
+        }
+        return retVal;
+    }
+
+    @Override
+    public Collection<Map.Entry<String, Count>> getAllCounts() {
+        List<Map.Entry<String, Count>> retVal = new ArrayList<Map.Entry<String, Count>>(this.size());
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] != 0)
+                retVal.add(new AbstractMap.SimpleEntry<String, Count>(this.tagDict.getTag(i), new Count(this.counts[i])));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the raw count array, indexed by tag ID; this is shared with the map and must not be modified
+     */
+    protected int[] getCountArray() {
+        return this.counts;
+    }
+
+    /**
+     * @return the tag dictionary for this count map
+     */
+    public TagDictionary getDictionary() {
+        return this.tagDict;
+    }
+
+}
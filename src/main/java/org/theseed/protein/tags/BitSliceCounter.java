@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.util.Arrays;
+
+/**
+ * This object counts tags in a collection of tag bitmaps using bit-sliced accumulation.  Rather than keeping one
+ * integer counter per tag, it keeps the counts vertically:  slice 0 holds the low-order bit of every tag's count,
+ * slice 1 the next bit, and so on.  Adding a bitmap is a ripple-carry addition done 64 tags at a time with bitwise
+ * operations, so the cost of adding a genome is proportional to the number of words in its bitmap rather than the
+ * number of tags.  When all the bitmaps have been added, the slices are converted to ordinary counts.
+ *
+ * This object is not thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BitSliceCounter {
+
+    // FIELDS
+    /** bit slices, from low-order to high-order */
+    private long[][] slices;
+    /** number of slices in use */
+    private int nSlices;
+    /** number of words per slice */
+    private int nWords;
+
+    /**
+     * Construct a new, empty bit-slice counter.
+     *
+     * @param nTags		expected number of tags (used to size the slices)
+     */
+    public BitSliceCounter(int nTags) {
+        this.nWords = (nTags + 63) >> 6;
+        this.slices = new long[8][];
+        this.nSlices = 0;
+    }
+
+    /**
+     * Add a tag bitmap to the counts.
+     *
+     * @param bitMap	bitmap to add
+     */
+    public void add(TagBitMap bitMap) {
+        final long[] words = bitMap.getWords();
+        if (words.length > this.nWords) {
+            // Widen the slices to accommodate the bitmap.
+            this.nWords = words.length;
+            for (int j = 0; j < this.nSlices; j++)
+                this.slices[j] = Arrays.copyOf(this.slices[j], this.nWords);
+        }
+        for (int w = 0; w < words.length; w++) {
+            long carry = words[w];
+            for (int j = 0; carry != 0; j++) {
+                if (j >= this.nSlices)
+                    this.addSlice();
+                final long[] slice = this.slices[j];
+                final long old = slice[w];
+                slice[w] = old ^ carry;
+                carry = old & carry;
+            }
+        }
+    }
+
+    /**
+     * Add a new high-order slice.
+     */
+    private void addSlice() {
+        if (this.nSlices >= this.slices.length)
+            this.slices = Arrays.copyOf(this.slices, this.slices.length * 2);
+        this.slices[this.nSlices] = new long[this.nWords];
+        this.nSlices++;
+    }
+
+    /**
+     * @return the counts as an array indexed by tag ID
+     */
+    public int[] getCounts() {
+        int[] retVal = new int[this.nWords << 6];
+        for (int j = 0; j < this.nSlices; j++) {
+            final long[] slice = this.slices[j];
+            final int bitValue = 1 << j;
+            for (int w = 0; w < this.nWords; w++) {
+                long word = slice[w];
+                final int base = w << 6;
+                while (word != 0) {
+                    retVal[base + Long.numberOfTrailingZeros(word)] += bitValue;
+                    word &= word - 1;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the counts as a tag count map
+     *
+     * @param dict	tag dictionary for the tag IDs
+     */
+    public ArrayTagCounts getTagCounts(TagDictionary dict) {
+        return new ArrayTagCounts(dict, this.getCounts());
+    }
+
+}
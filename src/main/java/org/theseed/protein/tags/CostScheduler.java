@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object runs a collection of work items on a dedicated pool of worker threads, largest first.  Each item has an
+ * estimated cost, and the workers always take the most expensive item remaining, so that the big jobs start early and
+ * the small ones fill in the gaps at the end of the run.
+ *
+ * Items whose cost is at least the large-item threshold are considered large, and only a limited number of large items
+ * may be in flight at once, to keep memory use under control.  When a worker is ready and the next item is large but
+ * the limit has been reached, the worker takes the most expensive small item instead.  If there are no small items
+ * left, the worker waits for a large item to finish.
+ *
+ * The pool is a fork-join pool, so parallel streams and fork-join tasks started while processing an item run in the
+ * same pool rather than in the common pool.  This allows a large item to spread its work across idle workers.  A worker
+ * waiting for a large item to finish blocks through ForkJoinPool.managedBlock, so the pool can start a spare thread
+ * to keep the inner work of the running items moving.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CostScheduler<T> {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(CostScheduler.class);
+    /** number of worker threads */
+    private final int workers;
+    /** maximum number of large items in flight */
+    private final int maxLarge;
+    /** minimum cost for a large item */
+    private long largeThreshold;
+    /** list of work items to process */
+    private List<Item<T>> items;
+    /** index of the next item to process */
+    private int head;
+    /** index of the first small item not yet processed, or -1 if it must be recomputed */
+    private int smallHead;
+    /** number of large items in flight */
+    private int largeInFlight;
+    /** first error encountered by a worker */
+    private AtomicReference<Throwable> failure;
+    /** blocker used by workers waiting for a large item to finish */
+    private final LargeItemBlocker blocker;
+    /** maximum number of spare threads the pool may add to replace blocked workers (same as the JDK default) */
+    private static final int MAX_SPARES = 256;
+
+    /**
+     * This interface describes the task performed on each work item.
+     */
+    public interface IWorker<T> {
+
+        /**
+         * Process a work item.
+         *
+         * @param item		item to process
+         *
+         * @throws IOException
+         */
+        public void process(T item) throws IOException;
+
+    }
+
+    /**
+     * This class holds a work item and its cost.
+     */
+    private static class Item<T> {
+
+        /** work item */
+        private final T item;
+        /** estimated cost */
+        private final long cost;
+        /** TRUE if the item has been taken */
+        private boolean taken;
+
+        /**
+         * Create a work item descriptor.
+         *
+         * @param item		work item
+         * @param cost		estimated cost
+         */
+        protected Item(T item, long cost) {
+            this.item = item;
+            this.cost = cost;
+            this.taken = false;
+        }
+
+    }
+
+    /**
+     * This class blocks a worker until a large item finishes or an error occurs.  It lets the fork-join pool know
+     * the worker is blocked so it can compensate.
+     */
+    private class LargeItemBlocker implements ForkJoinPool.ManagedBlocker {
+
+        @Override
+        public boolean block() throws InterruptedException {
+            synchronized (CostScheduler.this) {
+                if (! this.isReleasable())
+                    CostScheduler.this.wait();
+            }
+            // The caller re-checks the schedule after every wakeup.
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return (CostScheduler.this.largeInFlight < CostScheduler.this.maxLarge || CostScheduler.this.failure.get() != null);
+        }
+
+    }
+
+    /**
+     * Construct a new, empty cost scheduler.  Initially, the large-item threshold is computed as the total cost
+     * divided by the number of workers, so that an item is large if it is more than a fair share of the work.
+     *
+     * @param workers		number of worker threads
+     * @param maxLarge		maximum number of large items in flight at any one time
+     */
+    public CostScheduler(int workers, int maxLarge) {
+        this.workers = Math.max(1, workers);
+        this.maxLarge = Math.max(1, maxLarge);
+        this.largeThreshold = -1;
+        this.items = new ArrayList<Item<T>>();
+        this.blocker = new LargeItemBlocker();
+    }
+
+    /**
+     * Add a work item.
+     *
+     * @param item		item to add
+     * @param cost		estimated cost of processing the item
+     */
+    public void add(T item, long cost) {
+        this.items.add(new Item<T>(item, cost));
+    }
+
+    /**
+     * Specify the minimum cost for a large item.
+     *
+     * @param threshold		minimum cost for an item to count against the large-item limit
+     */
+    public void setLargeThreshold(long threshold) {
+        this.largeThreshold = threshold;
+    }
+
+    /**
+     * Process all the work items.  If any item fails, the remaining items are abandoned and the first failure is
+     * thrown.  Checked exceptions other than IOException are wrapped in an IOException.
+     *
+     * @param worker	task to perform on each item
+     *
+     * @throws IOException
+     */
+    public void run(IWorker<T> worker) throws IOException {
+        // Sort the items from most expensive to least.
+        this.items.sort(Comparator.comparingLong((Item<T> x) -> x.cost).reversed());
+        for (Item<T> item : this.items)
+            item.taken = false;
+        if (this.largeThreshold < 0) {
+            long total = this.items.stream().mapToLong(x -> x.cost).sum();
+            this.largeThreshold = Math.max(1, total / this.workers);
+        }
+        this.head = 0;
+        this.smallHead = -1;
+        this.largeInFlight = 0;
+        this.failure = new AtomicReference<Throwable>();
+        final int nLoops = Math.min(this.workers, this.items.size());
+        log.info("Scheduling {} work items on {} threads.  Large-item threshold is {}, limit is {}.", this.items.size(),
+                this.workers, this.largeThreshold, this.maxLarge);
+        if (nLoops > 0) {
+            // The minimum number of runnable threads is the full worker count, so that the pool starts a spare thread
+            // whenever a worker blocks waiting for a large item.
+            ForkJoinPool pool = new ForkJoinPool(this.workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null,
+                    false, 0, this.workers + MAX_SPARES, this.workers, null, 60, TimeUnit.SECONDS);
+            try {
+                for (int i = 0; i < nLoops; i++)
+                    pool.execute(() -> this.workerLoop(worker));
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for scheduled work.");
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        Throwable e = this.failure.get();
+        if (e instanceof IOException)
+            throw (IOException) e;
+        else if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        else if (e instanceof Error)
+            throw (Error) e;
+        else if (e instanceof InterruptedException) {
+            InterruptedIOException wrapper = new InterruptedIOException("Worker interrupted during scheduled work.");
+            wrapper.initCause(e);
+            throw wrapper;
+        } else if (e != null)
+            throw new IOException("Error in scheduled work: " + e.toString(), e);
+    }
+
+    /**
+     * Process work items until there are none left or an error occurs.
+     *
+     * @param worker	task to perform on each item
+     */
+    private void workerLoop(IWorker<T> worker) {
+        try {
+            Item<T> next = this.next();
+            while (next != null) {
+                final boolean large = (next.cost >= this.largeThreshold);
+                try {
+                    worker.process(next.item);
+                } finally {
+                    if (large)
+                        this.release();
+                }
+                next = this.next();
+            }
+        } catch (Throwable e) {
+            this.failure.compareAndSet(null, e);
+            this.abort();
+        }
+    }
+
+    /**
+     * @return the next item to process, or NULL if there are none left
+     *
+     * @throws InterruptedException
+     */
+    private synchronized Item<T> next() throws InterruptedException {
+        Item<T> retVal = null;
+        final int n = this.items.size();
+        while (retVal == null && this.failure.get() == null) {
+            // Skip past items already taken.
+            while (this.head < n && this.items.get(this.head).taken)
+                this.head++;
+            if (this.head >= n)
+                break;
+            Item<T> candidate = this.items.get(this.head);
+            if (candidate.cost < this.largeThreshold || this.largeInFlight < this.maxLarge)
+                retVal = candidate;
+            else {
+                // The next item is large and the limit is reached.  Look for a small one.
+                if (this.smallHead < 0) {
+                    this.smallHead = this.head;
+                    while (this.smallHead < n && this.items.get(this.smallHead).cost >= this.largeThreshold)
+                        this.smallHead++;
+                }
+                while (this.smallHead < n && this.items.get(this.smallHead).taken)
+                    this.smallHead++;
+                if (this.smallHead < n)
+                    retVal = this.items.get(this.smallHead);
+                else
+                    ForkJoinPool.managedBlock(this.blocker);
+            }
+        }
+        if (retVal != null) {
+            retVal.taken = true;
+            if (retVal.cost >= this.largeThreshold)
+                this.largeInFlight++;
+        }
+        return retVal;
+    }
+
+    /**
+     * Denote that a large item has finished.
+     */
+    private synchronized void release() {
+        this.largeInFlight--;
+        this.notifyAll();
+    }
+
+    /**
+     * Wake up any waiting workers so they can see an error has occurred.
+     */
+    private synchronized void abort() {
+        this.notifyAll();
+    }
+
+}
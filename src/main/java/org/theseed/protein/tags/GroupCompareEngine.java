@@ -102,19 +102,12 @@ public class GroupCompareEngine {
      * @return a set pair consisting of the present tags and the semi-present tags, respectively
      */
     private SetPair<String> analyzeTagCounts(TagCounts counts, int size) {
-        // Now we want to separate out the presence and absence sets.
-        Set<String> present = new HashSet<String>();
-        Set<String> semi = new HashSet<String>();
         // Compute the presence and absence thresholds for the set.
         int setPresent = (int) Math.ceil(size * this.minPresent);
         int setAbsent = (int) Math.floor(size * this.maxAbsent);
-        for (var counter : counts.getAllCounts()) {
-            int count = counter.getValue().getValue();
-            if (count >= setPresent)
-                present.add(counter.getKey());
-            else if (count > setAbsent)
-                semi.add(counter.getKey());
-        }
+        // Now we want to separate out the presence and absence sets.
+        Set<String> present = counts.getTagsInRange(setPresent, Integer.MAX_VALUE);
+        Set<String> semi = counts.getTagsInRange(setAbsent + 1, setPresent - 1);
         // Return the two sets.
         return new SetPair<String>(present, semi);
     }
@@ -175,6 +168,93 @@ public class GroupCompareEngine {
         return this.computeDistinguishing(leftTags, rightTags);
     }
 
+    /**
+     * Compute the tags that distinguish one child of a grouping from the rest of its siblings.  The counts for the
+     * rest of the siblings are computed on the fly as the parent total minus the child counts, so no complement
+     * count map or intermediate tag sets are built.  The result is the same as calling {@link #distinguishLeft} with
+     * the child counts on the left and the difference on the right.
+     *
+     * @param totalCounts	tag counts for the whole parent grouping (must include the child)
+     * @param totalSize		number of genomes in the parent grouping
+     * @param childCounts	tag counts for the child grouping
+     * @param childSize		number of genomes in the child grouping
+     *
+     * @return the tags that are present in the child and absent in the rest of the parent
+     */
+    public Set<String> distinguishFromRest(TagCounts totalCounts, int totalSize, TagCounts childCounts, int childSize) {
+        // Compute the presence threshold for the child.
+        final int childPresent = (int) Math.ceil(childSize * this.minPresent);
+        // A tag is absent from the rest if it is neither present nor semi-present there.
+        final int restSize = totalSize - childSize;
+        final int restPresent = (int) Math.ceil(restSize * this.minPresent);
+        final int restAbsent = (int) Math.floor(restSize * this.maxAbsent);
+        final int restLimit = Math.min(restPresent - 1, restAbsent);
+        Set<String> retVal = new HashSet<String>();
+        if (childCounts instanceof ArrayTagCounts && totalCounts instanceof ArrayTagCounts
+                && ((ArrayTagCounts) childCounts).getDictionary() == ((ArrayTagCounts) totalCounts).getDictionary()) {
+            // Here we can scan the two count arrays in parallel.
+            final int[] child = ((ArrayTagCounts) childCounts).getCountArray();
+            final int[] total = ((ArrayTagCounts) totalCounts).getCountArray();
+            final TagDictionary dict = ((ArrayTagCounts) childCounts).getDictionary();
+            for (int i = 0; i < child.length; i++) {
+                final int count = child[i];
+                if (count != 0 && count >= childPresent) {
+                    final int rest = (i < total.length ? total[i] - count : 0);
+                    if (rest <= restLimit)
+                        retVal.add(dict.getTag(i));
+                }
+            }
+        } else {
+            // Here we have to go through the tag strings.
+            for (var counter : childCounts.getAllCounts()) {
+                final int count = counter.getValue().getValue();
+                if (count >= childPresent) {
+                    String tag = counter.getKey();
+                    if (totalCounts.getCount(tag) - count <= restLimit)
+                        retVal.add(tag);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the tags that distinguish the left genome set from the right genome set, and return them
+     * as tag IDs from the tag directory's dictionary.
+     *
+     * @param leftCounts	tag counts for the left genome set
+     * @param leftSize		number of genomes in the left set
+     * @param rightCounts`	tag counts for the right genome set
+     * @param rightSize		number of genomes in the right set
+     *
+     * @return a sorted array of the IDs of the tags that are present in the left set and absent in the right set
+     */
+    public int[] distinguishLeftIds(TagCounts leftCounts, int leftSize, TagCounts rightCounts, int rightSize) {
+        Set<String> tags = this.distinguishLeft(leftCounts, leftSize, rightCounts, rightSize);
+        return this.tagDir.getDictionary().findIds(tags);
+    }
+
+    /**
+     * @return the maximum fraction of a set allowed for an absent tag
+     */
+    public double getMaxAbsent() {
+        return this.maxAbsent;
+    }
+
+    /**
+     * @return the minimum fraction of a set allowed for a present tag
+     */
+    public double getMinPresent() {
+        return this.minPresent;
+    }
+
+    /**
+     * @return the tag dictionary used by this engine
+     */
+    public TagDictionary getDictionary() {
+        return this.tagDir.getDictionary();
+    }
+
     /**
      * Compute the tags that distinguish the first set.  A tag is distinguishing if it is present in the first
      * set but absent in the second.  Each incoming set pair contains present and semi-present tags (which are
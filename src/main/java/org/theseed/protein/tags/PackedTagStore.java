@@ -0,0 +1,327 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object manages a packed binary tag store.  The store is a single file that holds the tag sets for an
+ * entire tag directory, and is read through a memory map so that no text has to be parsed to get a genome's tags.
+ *
+ * The file begins with a 16-byte header containing a magic number, a version number, and the file position of the
+ * index.  This is followed by the data area, which contains the sorted tag-ID array for each genome, packed end to end
+ * as 4-byte integers.  The index comes last.  It contains the tag dictionary (a tag count followed by the tags in
+ * ID order) and the genome index (a genome count followed by the genome ID, data position, and tag count of each
+ * genome).  Putting the index at the end allows the file to be written in a single pass.
+ *
+ * Once opened, the store is read-only and thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PackedTagStore implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(PackedTagStore.class);
+    /** name of the store file */
+    private File fileName;
+    /** file channel for the store */
+    private FileChannel channel;
+    /** memory-mapped segments of the data area */
+    private MappedByteBuffer[] segments;
+    /** map of genome IDs to index entries */
+    private Map<String, Entry> index;
+    /** list of tags in ID order */
+    private List<String> tagList;
+    /** magic number identifying a packed tag store */
+    private static final int MAGIC = 0x54414750;
+    /** current file format version */
+    private static final int VERSION = 1;
+    /** length of the file header */
+    private static final int HEADER_SIZE = 16;
+    /** maximum size of a mapped segment */
+    private static final long MAX_SEGMENT = 1L << 30;
+
+    /**
+     * This object describes the location of a genome's tag IDs in the data area.
+     */
+    private static class Entry {
+
+        /** index of the mapped segment containing the tag IDs */
+        private int segment;
+        /** position of the tag IDs in the segment */
+        private int position;
+        /** number of tag IDs */
+        private int length;
+
+        /**
+         * Construct an index entry.
+         *
+         * @param segment	index of the segment containing the tag IDs
+         * @param position	position of the first tag ID in the segment
+         * @param length	number of tag IDs
+         */
+        protected Entry(int segment, int position, int length) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * This object writes a packed tag store.  The genomes are added one at a time, and the index is written when
+     * the writer is committed.  If the writer is closed without being committed, the output file is deleted, so
+     * a failed pack never leaves behind a store that looks complete.
+     */
+    public static class Writer implements AutoCloseable {
+
+        /** output file name */
+        private File outFile;
+        /** output stream */
+        private DataOutputStream outStream;
+        /** current output position */
+        private long position;
+        /** list of genome IDs, in the order written */
+        private List<String> genomeIds;
+        /** list of data positions, in the order written */
+        private List<Long> positions;
+        /** list of tag counts, in the order written */
+        private List<Integer> lengths;
+        /** tag dictionary for the tag IDs */
+        private TagDictionary tagDict;
+        /** TRUE if the store has been committed */
+        private boolean committed;
+
+        /**
+         * Open a packed tag store for output.
+         *
+         * @param outFile	name of the output file
+         * @param dict		tag dictionary that defines the tag IDs
+         *
+         * @throws IOException
+         */
+        public Writer(File outFile, TagDictionary dict) throws IOException {
+            this.outFile = outFile;
+            this.tagDict = dict;
+            this.outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+            // Write the header.  The index position will be filled in when we commit.
+            this.outStream.writeInt(MAGIC);
+            this.outStream.writeInt(VERSION);
+            this.outStream.writeLong(0L);
+            this.position = HEADER_SIZE;
+            this.genomeIds = new ArrayList<String>();
+            this.positions = new ArrayList<Long>();
+            this.lengths = new ArrayList<Integer>();
+            this.committed = false;
+        }
+
+        /**
+         * Add a genome's tag set to the store.
+         *
+         * @param genomeId		ID of the genome
+         * @param tagIds		sorted array of the genome's tag IDs
+         *
+         * @throws IOException
+         */
+        public void add(String genomeId, int[] tagIds) throws IOException {
+            this.genomeIds.add(genomeId);
+            this.positions.add(this.position);
+            this.lengths.add(tagIds.length);
+            for (int tagId : tagIds)
+                this.outStream.writeInt(tagId);
+            this.position += tagIds.length * 4L;
+        }
+
+        /**
+         * Write the index and finish the store.
+         *
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            // Write the tag dictionary.
+            final long indexPosition = this.position;
+            final int nTags = this.tagDict.size();
+            this.outStream.writeInt(nTags);
+            for (int i = 0; i < nTags; i++)
+                this.outStream.writeUTF(this.tagDict.getTag(i));
+            // Write the genome index.
+            final int nGenomes = this.genomeIds.size();
+            this.outStream.writeInt(nGenomes);
+            for (int i = 0; i < nGenomes; i++) {
+                this.outStream.writeUTF(this.genomeIds.get(i));
+                this.outStream.writeLong(this.positions.get(i));
+                this.outStream.writeInt(this.lengths.get(i));
+            }
+            this.outStream.close();
+            // Fill in the index position in the header.
+            try (RandomAccessFile patcher = new RandomAccessFile(this.outFile, "rw")) {
+                patcher.seek(8);
+                patcher.writeLong(indexPosition);
+            }
+            this.committed = true;
+            log.info("{} genomes and {} tags written to packed tag store {}.", nGenomes, nTags, this.outFile);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (! this.committed) {
+                // Here the store is incomplete, so we throw it away.
+                this.outStream.close();
+                FileUtils.deleteQuietly(this.outFile);
+            }
+        }
+
+    }
+
+    /**
+     * Open an existing packed tag store.
+     *
+     * @param storeFile		name of the store file
+     *
+     * @throws IOException
+     */
+    public PackedTagStore(File storeFile) throws IOException {
+        this.fileName = storeFile;
+        this.channel = FileChannel.open(storeFile.toPath());
+        // Read the header.
+        MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC)
+            throw new IOException(storeFile + " is not a packed tag store.");
+        int version = header.getInt(4);
+        if (version != VERSION)
+            throw new IOException(storeFile + " has unsupported packed tag store version " + version + ".");
+        final long indexPosition = header.getLong(8);
+        if (indexPosition < HEADER_SIZE)
+            throw new IOException(storeFile + " is incomplete.");
+        // Read the index.  Note we do not close the input stream, because that would close the channel.
+        this.channel.position(indexPosition);
+        DataInputStream inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+        final int nTags = inStream.readInt();
+        this.tagList = new ArrayList<String>(nTags);
+        for (int i = 0; i < nTags; i++)
+            this.tagList.add(inStream.readUTF());
+        final int nGenomes = inStream.readInt();
+        this.index = new HashMap<String, Entry>(nGenomes * 4 / 3 + 1);
+        // The genomes are in data order.  We map the data area in segments, starting a new segment whenever
+        // the current one would exceed the maximum size.
+        List<MappedByteBuffer> segmentList = new ArrayList<MappedByteBuffer>();
+        long segStart = HEADER_SIZE;
+        for (int i = 0; i < nGenomes; i++) {
+            String genomeId = inStream.readUTF();
+            long dataPos = inStream.readLong();
+            int length = inStream.readInt();
+            long dataEnd = dataPos + length * 4L;
+            if (dataEnd - segStart > MAX_SEGMENT) {
+                segmentList.add(this.channel.map(FileChannel.MapMode.READ_ONLY, segStart, dataPos - segStart));
+                segStart = dataPos;
+            }
+            this.index.put(genomeId, new Entry(segmentList.size(), (int) (dataPos - segStart), length));
+        }
+        segmentList.add(this.channel.map(FileChannel.MapMode.READ_ONLY, segStart, indexPosition - segStart));
+        this.segments = segmentList.toArray(new MappedByteBuffer[segmentList.size()]);
+        log.info("{} genomes and {} tags found in packed tag store {}.", nGenomes, nTags, storeFile);
+    }
+
+    /**
+     * @return the sorted tag IDs for a genome, or NULL if the genome is not in the store
+     *
+     * @param genomeId		ID of the genome of interest
+     */
+    public int[] getTagIds(String genomeId) {
+        int[] retVal = null;
+        Entry entry = this.index.get(genomeId);
+        if (entry != null) {
+            retVal = new int[entry.length];
+            MappedByteBuffer segment = this.segments[entry.segment];
+            int pos = entry.position;
+            for (int i = 0; i < retVal.length; i++, pos += 4)
+                retVal[i] = segment.getInt(pos);
+        }
+        return retVal;
+    }
+
+    /**
+     * Count a genome's tags directly from the store.
+     *
+     * @param genomeId		ID of the genome of interest
+     * @param counts		tag counts to update
+     *
+     * @return TRUE if the genome was found, else FALSE
+     */
+    public boolean countTags(String genomeId, ArrayTagCounts counts) {
+        Entry entry = this.index.get(genomeId);
+        boolean retVal = (entry != null);
+        if (retVal) {
+            MappedByteBuffer segment = this.segments[entry.segment];
+            int pos = entry.position;
+            for (int i = 0; i < entry.length; i++, pos += 4)
+                counts.count(segment.getInt(pos), 1);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified genome is in this store
+     *
+     * @param genomeId		ID of the genome of interest
+     */
+    public boolean contains(String genomeId) {
+        return this.index.containsKey(genomeId);
+    }
+
+    /**
+     * @return the set of genome IDs in this store
+     */
+    public Set<String> getGenomeIds() {
+        return this.index.keySet();
+    }
+
+    /**
+     * @return the list of tags in this store, in ID order
+     */
+    public List<String> getTags() {
+        return this.tagList;
+    }
+
+    /**
+     * @return the number of genomes in this store
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * @return the name of the store file
+     */
+    public File getFileName() {
+        return this.fileName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
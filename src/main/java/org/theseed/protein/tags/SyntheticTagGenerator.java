@@ -0,0 +1,332 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.genome.TaxItem;
+import org.theseed.taxonomy.TaxonListDirectory;
+
+/**
+ * This object generates synthetic genome tag sets and taxonomies for scale testing.  The output is a tag directory
+ * and a matching taxon list directory, which can then be used with any of the comparison commands.
+ *
+ * The taxonomy is a regular tree.  Each grouping at a rank has a fixed number of children at the next rank down (the
+ * fan-out for that rank), until the number of groupings reaches the number of genomes.  Genome N belongs to grouping
+ * floor(N * G / total) at a rank with G groupings, so the genomes of each grouping are contiguous and the groupings
+ * nest properly.
+ *
+ * Each taxonomic grouping has a small core set of tags chosen uniformly from the vocabulary using the grouping's ID as
+ * a seed.  A genome contains most of the core tags of its lineage, which gives the comparison engines distinguishing
+ * tags to find at every level.  It also contains background tags drawn from the vocabulary with Zipfian frequencies,
+ * so that tag N is drawn with probability proportional to 1 / (N + 1)^s.  An exponent of 0 makes the background
+ * uniform.
+ *
+ * The same parameters always produce the same tag sets and taxonomy, regardless of the order in which the genomes
+ * are generated.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SyntheticTagGenerator {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SyntheticTagGenerator.class);
+    /** number of genomes */
+    private final int nGenomes;
+    /** number of distinct tags in the vocabulary */
+    private final int vocabSize;
+    /** random number seed */
+    private final long seed;
+    /** number of background tag draws per genome */
+    private int genomeTags;
+    /** number of core tags per taxonomic grouping */
+    private int coreTags;
+    /** probability a genome contains a core tag of its lineage */
+    private double coreRate;
+    /** Zipf exponent for background tags */
+    private double zipfExponent;
+    /** number of groupings at each rank */
+    private int[] rankSizes;
+    /** cumulative probability table for background tags, or NULL if it must be recomputed */
+    private double[] zipfTable;
+    /** base taxonomic ID multiplier for each rank */
+    private static final int RANK_BASE = 10000000;
+
+    /**
+     * Construct a synthetic data generator.  Initially, the fan-out is 4 at every rank, each genome gets 1000
+     * background tag draws with a Zipf exponent of 1, and each grouping has 20 core tags.
+     *
+     * @param nGenomes		number of genomes
+     * @param vocabSize		number of distinct tags
+     * @param seed			random number seed
+     */
+    public SyntheticTagGenerator(int nGenomes, int vocabSize, long seed) {
+        this.nGenomes = nGenomes;
+        this.vocabSize = vocabSize;
+        this.seed = seed;
+        this.genomeTags = 1000;
+        this.coreTags = 20;
+        this.coreRate = 0.95;
+        this.zipfExponent = 1.0;
+        this.zipfTable = null;
+        this.setFanOut(4);
+    }
+
+    /**
+     * Specify the taxonomic fan-out.  If fewer fan-outs are specified than there are ranks, the last one is
+     * used for the remaining ranks.  The number of groupings at a rank never exceeds the number of genomes.
+     *
+     * @param fanOuts	number of children per grouping at each rank, starting with the top rank
+     */
+    public void setFanOut(int... fanOuts) {
+        final int nRanks = TaxonListDirectory.RANKS.length;
+        this.rankSizes = new int[nRanks];
+        int size = 1;
+        for (int r = 0; r < nRanks; r++) {
+            int fanOut = (r < fanOuts.length ? fanOuts[r] : fanOuts[fanOuts.length - 1]);
+            // Restrict the fan-out so the grouping count stays within the genome count.
+            fanOut = Math.max(1, Math.min(fanOut, this.nGenomes / size));
+            size *= fanOut;
+            this.rankSizes[r] = size;
+        }
+    }
+
+    /**
+     * Specify the number of background tag draws per genome.  Because the draws are made with replacement,
+     * the number of distinct background tags will be smaller when the Zipf exponent is high.
+     *
+     * @param genomeTags	number of background tag draws per genome
+     */
+    public void setGenomeTags(int genomeTags) {
+        this.genomeTags = genomeTags;
+    }
+
+    /**
+     * Specify the number of core tags for each taxonomic grouping.
+     *
+     * @param coreTags		number of core tags per grouping
+     */
+    public void setCoreTags(int coreTags) {
+        this.coreTags = coreTags;
+    }
+
+    /**
+     * Specify the Zipf exponent for the background tags.
+     *
+     * @param exponent		Zipf exponent (0 for a uniform distribution)
+     */
+    public void setZipfExponent(double exponent) {
+        this.zipfExponent = exponent;
+        this.zipfTable = null;
+    }
+
+    /**
+     * @return the name of a tag
+     *
+     * @param tagNum	index of the tag in the vocabulary
+     */
+    public static String tagName(int tagNum) {
+        return String.format("T%07d", tagNum);
+    }
+
+    /**
+     * @return the ID of a genome
+     *
+     * @param gNum		index of the genome
+     */
+    public static String genomeId(int gNum) {
+        return (gNum + 1) + ".1";
+    }
+
+    /**
+     * @return the taxonomic ID of the grouping containing a genome at a specified rank
+     *
+     * @param gNum		index of the genome
+     * @param r			rank level
+     */
+    public int taxId(int gNum, int r) {
+        int idx = (int) ((long) gNum * this.rankSizes[r] / this.nGenomes);
+        return (r + 1) * RANK_BASE + idx;
+    }
+
+    /**
+     * @return the lineage of a genome, from smallest grouping to largest
+     *
+     * @param gNum		index of the genome
+     */
+    public List<TaxItem> lineage(int gNum) {
+        final int nRanks = this.rankSizes.length;
+        List<TaxItem> retVal = new ArrayList<TaxItem>(nRanks);
+        for (int r = nRanks - 1; r >= 0; r--) {
+            int taxId = this.taxId(gNum, r);
+            String rank = TaxonListDirectory.RANKS[r];
+            retVal.add(new TaxItem(taxId, rank + " " + taxId, rank));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the tag set for a genome
+     *
+     * @param gNum		index of the genome
+     */
+    public Set<String> tags(int gNum) {
+        return tagNames(this.tagNums(gNum));
+    }
+
+    /**
+     * @return the set of tag names for a set of vocabulary indices
+     *
+     * @param tagNums	set of vocabulary indices
+     */
+    private static Set<String> tagNames(BitSet tagNums) {
+        Set<String> retVal = new HashSet<String>(tagNums.cardinality() * 4 / 3 + 1);
+        for (int tagNum = tagNums.nextSetBit(0); tagNum >= 0; tagNum = tagNums.nextSetBit(tagNum + 1))
+            retVal.add(tagName(tagNum));
+        return retVal;
+    }
+
+    /**
+     * @return the set of vocabulary indices for the tags of a genome
+     *
+     * @param gNum		index of the genome
+     */
+    private BitSet tagNums(int gNum) {
+        final double[] table = this.getZipfTable();
+        BitSet retVal = new BitSet(this.vocabSize);
+        Random rand = new Random(this.seed * 31 + gNum);
+        // Add the core tags for the lineage.
+        for (int r = 0; r < this.rankSizes.length; r++) {
+            Random coreRand = new Random(this.seed ^ this.taxId(gNum, r));
+            for (int i = 0; i < this.coreTags; i++) {
+                int tagNum = coreRand.nextInt(this.vocabSize);
+                if (rand.nextDouble() < this.coreRate)
+                    retVal.set(tagNum);
+            }
+        }
+        // Add the background tags.
+        for (int i = 0; i < this.genomeTags; i++) {
+            int tagNum;
+            if (table == null)
+                tagNum = rand.nextInt(this.vocabSize);
+            else {
+                tagNum = Arrays.binarySearch(table, rand.nextDouble());
+                if (tagNum < 0)
+                    tagNum = -tagNum - 1;
+                if (tagNum >= this.vocabSize)
+                    tagNum = this.vocabSize - 1;
+            }
+            retVal.set(tagNum);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the cumulative probability table for the background tags, or NULL if they are uniform
+     */
+    private synchronized double[] getZipfTable() {
+        if (this.zipfTable == null && this.zipfExponent > 0.0) {
+            double[] table = new double[this.vocabSize];
+            double total = 0.0;
+            for (int i = 0; i < this.vocabSize; i++) {
+                total += Math.pow(i + 1, -this.zipfExponent);
+                table[i] = total;
+            }
+            for (int i = 0; i < this.vocabSize; i++)
+                table[i] /= total;
+            this.zipfTable = table;
+        }
+        return this.zipfTable;
+    }
+
+    /**
+     * Write the tag sets to a tag directory.  The genomes are generated in parallel.
+     *
+     * @param tagDir	tag directory to receive the genomes
+     *
+     * @return the number of distinct tags in the generated tag sets
+     *
+     * @throws IOException
+     */
+    public int fillTagDirectory(TagDirectory tagDir) throws IOException {
+        log.info("Generating tag sets for {} genomes in {}.", this.nGenomes, tagDir);
+        BitSet used = new BitSet(this.vocabSize);
+        try {
+            IntStream.range(0, this.nGenomes).parallel().forEach(g -> this.addGenome(tagDir, g, used));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return used.cardinality();
+    }
+
+    /**
+     * Add a single genome's tag set to a tag directory.
+     *
+     * @param tagDir	target tag directory
+     * @param gNum		index of the genome
+     * @param used		set of vocabulary indices used so far, to be updated with this genome's tags
+     */
+    private void addGenome(TagDirectory tagDir, int gNum, BitSet used) {
+        BitSet tagNums = this.tagNums(gNum);
+        try {
+            tagDir.addTags(genomeId(gNum), tagNames(tagNums));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (used) {
+            used.or(tagNums);
+        }
+    }
+
+    /**
+     * Write the taxonomy to a taxon list directory.
+     *
+     * @param taxDir	taxon list directory to receive the genomes
+     *
+     * @throws IOException
+     */
+    public void fillTaxonDirectory(TaxonListDirectory taxDir) throws IOException {
+        log.info("Generating taxonomy for {} genomes.", this.nGenomes);
+        try (TaxonListDirectory.Updater updater = taxDir.getUpdater()) {
+            for (int g = 0; g < this.nGenomes; g++)
+                updater.add(genomeId(g), this.lineage(g).iterator());
+            updater.save();
+        }
+    }
+
+    /**
+     * @return the number of genomes
+     */
+    public int size() {
+        return this.nGenomes;
+    }
+
+    /**
+     * @return the vocabulary size
+     */
+    public int getVocabSize() {
+        return this.vocabSize;
+    }
+
+    /**
+     * @return the number of taxonomic groupings at each rank, starting with the top rank
+     */
+    public int[] getRankSizes() {
+        return this.rankSizes;
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.util.Arrays;
+
+/**
+ * This object represents a genome's tag set as a bitmap over the tag IDs in a tag dictionary.  The bitmap is stored
+ * as an array of longs, trimmed to the last nonzero word, so a genome with a few thousand tags takes only a few hundred
+ * bytes.  The object is immutable once built.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TagBitMap {
+
+    // FIELDS
+    /** array of bitmap words */
+    private final long[] words;
+    /** number of bits set */
+    private final int size;
+    /** empty word array */
+    private static final long[] EMPTY_WORDS = new long[0];
+
+    /**
+     * Construct a tag bitmap from an array of tag IDs.
+     *
+     * @param tagIds	array of tag IDs to put in the bitmap
+     */
+    public TagBitMap(int[] tagIds) {
+        int maxId = -1;
+        for (int tagId : tagIds) {
+            if (tagId > maxId) maxId = tagId;
+        }
+        if (maxId < 0)
+            this.words = EMPTY_WORDS;
+        else {
+            this.words = new long[(maxId >> 6) + 1];
+            for (int tagId : tagIds)
+                this.words[tagId >> 6] |= 1L << tagId;
+        }
+        int count = 0;
+        for (long word : this.words)
+            count += Long.bitCount(word);
+        this.size = count;
+    }
+
+    /**
+     * @return TRUE if the specified tag ID is in this bitmap
+     *
+     * @param tagId		tag ID to check
+     */
+    public boolean contains(int tagId) {
+        int w = tagId >> 6;
+        return (w < this.words.length && (this.words[w] & (1L << tagId)) != 0);
+    }
+
+    /**
+     * @return a sorted array of the tag IDs in this bitmap
+     */
+    public int[] getIds() {
+        int[] retVal = new int[this.size];
+        int i = 0;
+        for (int w = 0; w < this.words.length; w++) {
+            long word = this.words[w];
+            while (word != 0) {
+                retVal[i] = (w << 6) + Long.numberOfTrailingZeros(word);
+                i++;
+                word &= word - 1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of tags in this bitmap
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the bitmap words (this is the internal array, and must not be modified)
+     */
+    protected long[] getWords() {
+        return this.words;
+    }
+
+    /**
+     * @return the approximate number of bytes of memory used by this bitmap
+     */
+    public long memorySize() {
+        return 32 + this.words.length * 8L;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.words);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TagBitMap)) {
+            return false;
+        }
+        TagBitMap other = (TagBitMap) obj;
+        return Arrays.equals(this.words, other.words);
+    }
+
+}
@@ -11,6 +11,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -22,6 +23,9 @@ import org.theseed.io.TabbedLineReader;
  * This object counts tags for the genome comparison.  It is lighter weight than CountMap or WeightMap because we expect a large number
  * of tags to count.
  *
+ * This is the general-purpose hash-based implementation.  When the tags come from a tag directory, the subclass ArrayTagCounts
+ * keeps the counts in a flat array indexed by tag ID instead.
+ *
  * @author Bruce Parrello
  *
  */
@@ -62,6 +66,16 @@ public class TagCounts {
         this.countMap = new HashMap<String, Count>(capacity);
     }
 
+    /**
+     * Construct a tag count map that does not use the base-class hash table.  This is for subclasses that keep
+     * their counts elsewhere and override all the methods that access the table.
+     *
+     * @param countMap	hash table to use for the counts (may be NULL if the subclass does not use it)
+     */
+    protected TagCounts(Map<String, Count> countMap) {
+        this.countMap = countMap;
+    }
+
     /**
      * Construct a tag count map from a single set of tags.
      *
@@ -113,7 +127,7 @@ public class TagCounts {
     public void save(File saveFile) throws IOException {
         try (PrintWriter writer = new PrintWriter(saveFile)) {
             writer.println("tag\tcount");
-            for (var countEntry : this.countMap.entrySet()) {
+            for (var countEntry : this.getAllCounts()) {
                 String tag = countEntry.getKey();
                 int count = countEntry.getValue().getValue();
                 writer.println(tag + "\t" + count);
@@ -205,6 +219,22 @@ public class TagCounts {
         return retVal;
     }
 
+    /**
+     * @return the set of tags whose counts fall within a specified range
+     *
+     * @param min	minimum count for a tag to be included
+     * @param max	maximum count for a tag to be included
+     */
+    public Set<String> getTagsInRange(int min, int max) {
+        Set<String> retVal = new HashSet<String>();
+        for (var counter : this.countMap.entrySet()) {
+            int count = counter.getValue().getValue();
+            if (count >= min && count <= max)
+                retVal.add(counter.getKey());
+        }
+        return retVal;
+    }
+
     /**
      * Erase all the counts in this map.
      */
@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This object maps tag strings (role IDs, protein family IDs) to dense integer IDs.  Each distinct tag is assigned
+ * the next available ID the first time it is seen, and the canonical copy of the tag string is kept here, so that
+ * the rest of the system can work with small integers instead of hashing strings, and so that duplicate tag strings
+ * loaded from different genomes collapse into a single object.
+ *
+ * Only the "get" methods add tags.  The "find" methods are pure lookups, and should be used by anything that is
+ * querying the dictionary rather than loading tags into it, so that queries do not change the dictionary.
+ *
+ * This object is thread-safe.  Lookups of known tags do not lock, and new tags are added under a lock.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TagDictionary {
+
+    // FIELDS
+    /** map of tag strings to tag IDs */
+    private final Map<String, Integer> idMap;
+    /** array of tag strings, indexed by tag ID */
+    private volatile String[] tags;
+    /** number of tags in the dictionary */
+    private volatile int size;
+    /** default initial capacity */
+    private static final int DEFAULT_CAPACITY = 4000;
+
+    /**
+     * Construct a blank, empty tag dictionary.
+     */
+    public TagDictionary() {
+        this.idMap = new ConcurrentHashMap<String, Integer>(DEFAULT_CAPACITY * 4 / 3 + 1);
+        this.tags = new String[DEFAULT_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Construct a tag dictionary pre-loaded with a list of tags.  The tags will be assigned IDs in list order.
+     *
+     * @param tagList	list of tags to pre-load
+     */
+    public TagDictionary(List<String> tagList) {
+        final int n = tagList.size();
+        this.idMap = new ConcurrentHashMap<String, Integer>(Math.max(n, DEFAULT_CAPACITY) * 4 / 3 + 1);
+        this.tags = new String[Math.max(n, DEFAULT_CAPACITY)];
+        this.size = 0;
+        for (String tag : tagList)
+            this.getId(tag);
+    }
+
+    /**
+     * @return the ID for a tag, adding the tag to the dictionary if it is new
+     *
+     * @param tag	tag string of interest
+     */
+    public int getId(String tag) {
+        Integer retVal = this.idMap.get(tag);
+        if (retVal == null) {
+            synchronized (this) {
+                // We have to re-check inside the lock, since another thread may have added the tag.
+                retVal = this.idMap.get(tag);
+                if (retVal == null) {
+                    int id = this.size;
+                    String[] tagArray = this.tags;
+                    if (id >= tagArray.length)
+                        tagArray = Arrays.copyOf(tagArray, tagArray.length * 2);
+                    tagArray[id] = tag;
+                    this.tags = tagArray;
+                    this.size = id + 1;
+                    retVal = id;
+                    this.idMap.put(tag, retVal);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID for a tag, or -1 if the tag is not in the dictionary
+     *
+     * @param tag	tag string of interest
+     */
+    public int findId(String tag) {
+        Integer retVal = this.idMap.get(tag);
+        return (retVal == null ? -1 : retVal);
+    }
+
+    /**
+     * @return the canonical copy of a tag string, or the string itself if the tag is not in the dictionary
+     *
+     * @param tag	tag string of interest
+     */
+    public String findTag(String tag) {
+        Integer id = this.idMap.get(tag);
+        return (id == null ? tag : this.tags[id]);
+    }
+
+    /**
+     * @return the tag string for a tag ID
+     *
+     * @param id	ID of the tag of interest
+     */
+    public String getTag(int id) {
+        return this.tags[id];
+    }
+
+    /**
+     * @return the canonical copy of a tag string, adding it to the dictionary if it is new
+     *
+     * @param tag	tag string to intern
+     */
+    public String intern(String tag) {
+        return this.tags[this.getId(tag)];
+    }
+
+    /**
+     * @return a sorted array of the IDs for a collection of tags, adding new tags to the dictionary
+     *
+     * @param tagSet	collection of tags to convert
+     */
+    public int[] getIds(Collection<String> tagSet) {
+        int[] retVal = new int[tagSet.size()];
+        int i = 0;
+        for (String tag : tagSet) {
+            retVal[i] = this.getId(tag);
+            i++;
+        }
+        Arrays.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return a sorted array of the IDs for the tags in a collection that are in the dictionary; tags not in the
+     * 		   dictionary are skipped
+     *
+     * @param tagSet	collection of tags to convert
+     */
+    public int[] findIds(Collection<String> tagSet) {
+        int[] retVal = new int[tagSet.size()];
+        int i = 0;
+        for (String tag : tagSet) {
+            Integer id = this.idMap.get(tag);
+            if (id != null) {
+                retVal[i] = id;
+                i++;
+            }
+        }
+        if (i < retVal.length)
+            retVal = Arrays.copyOf(retVal, i);
+        Arrays.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return the set of tags corresponding to an array of tag IDs
+     *
+     * @param ids	array of tag IDs to convert
+     */
+    public Set<String> getTags(int[] ids) {
+        Set<String> retVal = new HashSet<String>((ids.length + 2) / 3 * 4 + 1);
+        String[] tagArray = this.tags;
+        for (int id : ids)
+            retVal.add(tagArray[id]);
+        return retVal;
+    }
+
+    /**
+     * @return the number of tags in the dictionary
+     */
+    public int size() {
+        return this.size;
+    }
+
+}
@@ -6,10 +6,19 @@ package org.theseed.protein.tags;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
@@ -25,10 +34,24 @@ import org.theseed.protein.tags.scanner.FeatureScanner;
  * a count map and used for tag comparison to another subset.  This avoids having to re-scan the genomes for each
  * comparison.
  *
+ * The directory keeps a tag dictionary that assigns each tag a dense integer ID.  Tag sets can be retrieved as
+ * arrays of these IDs, and the tag strings returned are always the dictionary's canonical copies.  The dictionary
+ * is saved in a vocabulary file as tags are added, so it is complete as soon as the directory is loaded, and
+ * reading tag sets never adds to it.  (A directory written before the vocabulary file existed has its vocabulary
+ * built from the tag files the first time it is loaded.)
+ *
+ * Optionally, the tag sets can be packed into a single binary file (see PackedTagStore) that is read through a
+ * memory map.  If the packed store exists when the directory is loaded, its tag dictionary is used for the tag IDs.
+ * Genomes added after packing are stored in individual files, which take precedence over the packed store.
+ *
+ * Genomes can be added and read from multiple threads at once.  Packing and loading into memory should not be
+ * done while other threads are using the directory.  The directory should be closed when it is no longer needed,
+ * to release the packed store.
+ *
  * @author Bruce Parrello
  *
  */
-public class TagDirectory {
+public class TagDirectory implements AutoCloseable {
 
     // FIELDS
     /** logging facility */
@@ -37,12 +60,34 @@ public class TagDirectory {
     private File dirName;
     /** map of genome IDs to file names */
     private Map<String, File> fileMap;
+    /** dictionary of tag IDs for the tags in this directory */
+    private TagDictionary tagDict;
+    /** packed tag store, or NULL if there is none */
+    private PackedTagStore packedStore;
+    /** map of genome IDs to in-memory tag bitmaps, or NULL if the tag sets are not in memory */
+    private Map<String, TagBitMap> bitMaps;
+    /** cache of tag sets loaded from tag files, or NULL if there is no cache */
+    private TagSetCache cache;
+    /** number of genomes in the packed store that do not have individual tag files */
+    private AtomicInteger packedOnly;
+    /** number of dictionary tags saved in the packed store or the vocabulary file */
+    private int vocabSize;
+    /** lock for updating the vocabulary file */
+    private final Object vocabLock = new Object();
+    /** name of the packed tag store file */
+    public static final String PACK_FILE_NAME = "tags.pack";
+    /** name of the vocabulary file for tags not in the packed store */
+    public static final String VOCAB_FILE_NAME = "tags.vocab";
     /** tag count file suffix */
     private static final String TAG_FILE_SUFFIX = ".tags";
     /** tag file name match pattern */
     private static final Pattern TAG_FILE_PATTERN = Pattern.compile("\\d+\\.\\d+\\" + TAG_FILE_SUFFIX);
     /** empty tag set */
     private static final Set<String> EMPTY_TAG_SET = Collections.emptySet();
+    /** empty tag ID array */
+    private static final int[] EMPTY_TAG_IDS = new int[0];
+    /** reusable per-thread buffer for collecting a genome's tag IDs during a scan */
+    private static final ThreadLocal<BitSet> TAG_BUFFER = ThreadLocal.withInitial(BitSet::new);
     /** tag file name filter */
     private static FileFilter TAG_FILE_FILTER = new FileFilter() {
         @Override
@@ -66,18 +111,82 @@ public class TagDirectory {
      */
     public TagDirectory(File tagDir) throws IOException {
         this.dirName = tagDir;
+        this.packedStore = null;
+        this.bitMaps = null;
+        this.cache = null;
+        this.tagDict = new TagDictionary();
+        this.vocabSize = 0;
+        this.packedOnly = new AtomicInteger(0);
         if (! tagDir.isDirectory()) {
             log.info("Creating directory {} for tag sets.", tagDir);
             FileUtils.forceMkdir(tagDir);
-            this.fileMap = new HashMap<String, File>();
+            this.fileMap = new ConcurrentHashMap<String, File>();
         } else {
             File[] tagFiles = tagDir.listFiles(TAG_FILE_FILTER);
-            this.fileMap = new HashMap<String, File>((tagFiles.length + 2) / 3 * 4 + 1);
+            this.fileMap = new ConcurrentHashMap<String, File>((tagFiles.length + 2) / 3 * 4 + 1);
             for (File tagFile : tagFiles) {
                 String genomeId = StringUtils.substringBeforeLast(tagFile.getName(), TAG_FILE_SUFFIX);
                 this.fileMap.put(genomeId, tagFile);
             }
             log.info("{} tag files found in {}.", this.fileMap.size(), tagDir);
+            // Check for a packed store.  If there is one, it defines the first tag IDs.
+            File packFile = new File(tagDir, PACK_FILE_NAME);
+            if (packFile.canRead()) {
+                this.packedStore = new PackedTagStore(packFile);
+                this.tagDict = new TagDictionary(this.packedStore.getTags());
+                this.vocabSize = this.tagDict.size();
+                this.countPackedOnly();
+            }
+            // The vocabulary file contains the tags added since the pack, in ID order.
+            File vocabFile = new File(tagDir, VOCAB_FILE_NAME);
+            if (vocabFile.canRead()) {
+                for (String tag : FileUtils.readLines(vocabFile, StandardCharsets.UTF_8))
+                    this.tagDict.getId(tag);
+                this.vocabSize = this.tagDict.size();
+            } else if (! this.fileMap.isEmpty()) {
+                // Here we have an old directory, and must build the vocabulary from the tag files.
+                log.info("Building tag vocabulary for {} from {} tag files.", tagDir, this.fileMap.size());
+                for (File tagFile : this.fileMap.values()) {
+                    for (String tag : SetFile.load(tagFile))
+                        this.tagDict.getId(tag);
+                }
+                try {
+                    this.saveVocabulary();
+                } catch (IOException e) {
+                    log.warn("Could not save tag vocabulary for {}: {}", tagDir, e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the number of genomes that are only in the packed store.
+     */
+    private void countPackedOnly() {
+        int count = 0;
+        for (String genomeId : this.packedStore.getGenomeIds()) {
+            if (! this.fileMap.containsKey(genomeId))
+                count++;
+        }
+        this.packedOnly.set(count);
+    }
+
+    /**
+     * Append any new dictionary tags to the vocabulary file.  This must be called after tags are added to the
+     * dictionary and before they are written to a tag file, so that the vocabulary always covers the tag files.
+     *
+     * @throws IOException
+     */
+    private void saveVocabulary() throws IOException {
+        synchronized (this.vocabLock) {
+            final int n = this.tagDict.size();
+            if (n > this.vocabSize) {
+                List<String> newTags = new ArrayList<String>(n - this.vocabSize);
+                for (int i = this.vocabSize; i < n; i++)
+                    newTags.add(this.tagDict.getTag(i));
+                FileUtils.writeLines(new File(this.dirName, VOCAB_FILE_NAME), StandardCharsets.UTF_8.name(), newTags, true);
+                this.vocabSize = n;
+            }
         }
     }
 
@@ -89,14 +198,72 @@ public class TagDirectory {
      * @throws IOException
      */
     public TagCounts getTagCounts(Set<String> genomeSet) throws IOException {
-        TagCounts retVal = new TagCounts();
+        if (this.bitMaps != null)
+            return this.getBitMapCounts(genomeSet);
+        ArrayTagCounts retVal = this.createTagCounts();
         for (String genomeId : genomeSet) {
-            Set<String> tags = this.getGenome(genomeId);
-            retVal.count(tags);
+            // Genomes in the packed store are counted in place.  Individual tag files take precedence,
+            // since they are newer.
+            if (this.packedStore == null || this.fileMap.containsKey(genomeId)
+                    || ! this.packedStore.countTags(genomeId, retVal)) {
+                int[] tagIds = this.getGenomeTagIds(genomeId);
+                retVal.count(tagIds);
+            }
         }
         return retVal;
     }
 
+    /**
+     * @return the tag counts for a set of genomes, computed from the in-memory bitmaps
+     *
+     * @param genomeSet		set of IDs for the genomes to count
+     */
+    private TagCounts getBitMapCounts(Set<String> genomeSet) {
+        BitSliceCounter counter = new BitSliceCounter(this.tagDict.size());
+        for (String genomeId : genomeSet) {
+            TagBitMap bitMap = this.bitMaps.get(genomeId);
+            if (bitMap != null)
+                counter.add(bitMap);
+        }
+        return counter.getTagCounts(this.tagDict);
+    }
+
+    /**
+     * Load all the tag sets in this directory into memory as bitmaps.  After this, tag sets are retrieved from memory
+     * and tag counts are computed by bit-sliced accumulation.
+     *
+     * @throws IOException
+     */
+    public void loadBitMaps() throws IOException {
+        Set<String> genomeIds = new HashSet<String>(this.fileMap.keySet());
+        if (this.packedStore != null)
+            genomeIds.addAll(this.packedStore.getGenomeIds());
+        log.info("Loading {} tag sets from {} into memory.", genomeIds.size(), this.dirName);
+        Map<String, TagBitMap> newMaps = new ConcurrentHashMap<String, TagBitMap>(genomeIds.size() * 4 / 3 + 1);
+        long memory = 0;
+        for (String genomeId : genomeIds) {
+            TagBitMap bitMap = new TagBitMap(this.getGenomeTagIds(genomeId));
+            newMaps.put(genomeId, bitMap);
+            memory += bitMap.memorySize();
+        }
+        this.bitMaps = newMaps;
+        log.info("{} tag bitmaps loaded using {} bytes.", newMaps.size(), memory);
+    }
+
+    /**
+     * @return TRUE if the tag sets are held in memory as bitmaps
+     */
+    public boolean isInMemory() {
+        return this.bitMaps != null;
+    }
+
+    /**
+     * @return an empty tag count map that uses this directory's tag dictionary
+     */
+    public ArrayTagCounts createTagCounts() {
+        return new ArrayTagCounts(this.tagDict);
+    }
+
     /**
      * Convert a genome ID to a file name.
      *
@@ -117,15 +284,52 @@ public class TagDirectory {
      * @throws IOException
      */
     public void addGenome(Genome genome, FeatureScanner scanner) throws IOException {
-        // Compute the tag set for this genome.
-        Set<String> tags = scanner.getTags(genome);
+        // Collect the tag IDs for this genome in the thread's buffer, so the scan creates no per-feature objects.
+        final BitSet tagBits = TAG_BUFFER.get();
+        tagBits.clear();
+        scanner.scanGenome(genome, tag -> tagBits.set(this.tagDict.getId(tag)));
+        int[] tagIds = tagBits.stream().toArray();
+        this.saveVocabulary();
+        this.storeTags(genome.getId(), this.tagDict.getTags(tagIds), tagIds);
+    }
+
+    /**
+     * Add a precomputed tag set to the tag directory.
+     *
+     * @param genomeId	ID of the genome whose tags are being added
+     * @param tags		set of tags for the genome
+     *
+     * @throws IOException
+     */
+    public void addTags(String genomeId, Set<String> tags) throws IOException {
+        int[] tagIds = this.tagDict.getIds(tags);
+        this.saveVocabulary();
+        this.storeTags(genomeId, tags, tagIds);
+    }
+
+    /**
+     * Store a genome's tag set in the tag directory.
+     *
+     * @param genomeId	ID of the genome whose tags are being added
+     * @param tags		set of tags for the genome
+     * @param tagIds	sorted array of the tag IDs for the genome
+     *
+     * @throws IOException
+     */
+    private void storeTags(String genomeId, Set<String> tags, int[] tagIds) throws IOException {
         // Compute the associated file.
-        String genomeId = genome.getId();
         File genomeFile = this.getGenomeFile(genomeId);
         // Write the set to the file.
         SetFile.save(genomeFile, tags);
-        // Update the map.
-        this.fileMap.put(genomeId, genomeFile);
+        // Update the map.  If this genome was previously only in the packed store, it is now in both.
+        if (this.fileMap.put(genomeId, genomeFile) == null && this.packedStore != null
+                && this.packedStore.contains(genomeId))
+            this.packedOnly.decrementAndGet();
+        if (this.cache != null)
+            this.cache.remove(genomeId);
+        // If the tag sets are in memory, update the bitmap.
+        if (this.bitMaps != null)
+            this.bitMaps.put(genomeId, new TagBitMap(tagIds));
     }
 
     /**
@@ -140,27 +344,193 @@ public class TagDirectory {
     public Set<String> getGenome(String genomeId) throws IOException {
         Set<String> retVal;
         File genomeFile = this.fileMap.get(genomeId);
-        if (genomeFile == null)
-            retVal = EMPTY_TAG_SET;
-        else
-            retVal = SetFile.load(genomeFile);
+        if (this.bitMaps != null) {
+            TagBitMap bitMap = this.bitMaps.get(genomeId);
+            retVal = (bitMap == null ? EMPTY_TAG_SET : this.tagDict.getTags(bitMap.getIds()));
+        } else if (genomeFile != null && this.cache != null) {
+            retVal = this.tagDict.getTags(this.loadTagFile(genomeId, genomeFile));
+        } else if (genomeFile != null) {
+            // Replace each tag with its canonical copy, so that the duplicate strings can be freed.
+            Set<String> tags = SetFile.load(genomeFile);
+            retVal = new HashSet<String>((tags.size() + 2) / 3 * 4 + 1);
+            for (String tag : tags)
+                retVal.add(this.tagDict.findTag(tag));
+        } else {
+            int[] tagIds = this.getPackedTagIds(genomeId);
+            if (tagIds == null)
+                retVal = EMPTY_TAG_SET;
+            else
+                retVal = this.tagDict.getTags(tagIds);
+        }
+        return retVal;
+    }
+
+    /**
+     * Fetch a genome's tag set from the tag directory in the form of tag IDs.  The array returned may be
+     * shared with the tag set cache, so it must not be modified.
+     *
+     * @param genomeId	ID of the target genome
+     *
+     * @return a sorted array of the tag IDs for the genome
+     *
+     * @throws IOException
+     */
+    public int[] getGenomeTagIds(String genomeId) throws IOException {
+        int[] retVal;
+        File genomeFile = this.fileMap.get(genomeId);
+        if (this.bitMaps != null) {
+            TagBitMap bitMap = this.bitMaps.get(genomeId);
+            retVal = (bitMap == null ? EMPTY_TAG_IDS : bitMap.getIds());
+        } else if (genomeFile != null)
+            retVal = this.loadTagFile(genomeId, genomeFile);
+        else {
+            retVal = this.getPackedTagIds(genomeId);
+            if (retVal == null)
+                retVal = EMPTY_TAG_IDS;
+        }
+        return retVal;
+    }
+
+    /**
+     * Load the tag IDs for a genome from its tag file, using the cache if there is one.
+     *
+     * @param genomeId		ID of the target genome
+     * @param genomeFile	tag file for the genome
+     *
+     * @return a sorted array of the tag IDs for the genome
+     *
+     * @throws IOException
+     */
+    private int[] loadTagFile(String genomeId, File genomeFile) throws IOException {
+        int[] retVal = null;
+        if (this.cache != null)
+            retVal = this.cache.get(genomeId);
+        if (retVal == null) {
+            retVal = this.tagDict.findIds(SetFile.load(genomeFile));
+            if (this.cache != null)
+                this.cache.put(genomeId, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Set up a cache for tag sets loaded from the individual tag files.  A budget of zero or less turns
+     * the cache off.
+     *
+     * @param budget	maximum memory for the cache, in bytes
+     */
+    public void setCacheLimit(long budget) {
+        if (budget <= 0)
+            this.cache = null;
+        else {
+            this.cache = new TagSetCache(budget);
+            log.info("Tag set cache for {} limited to {} bytes.", this.dirName, budget);
+        }
+    }
+
+    /**
+     * @return the tag set cache, or NULL if there is none
+     */
+    public TagSetCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * @return the tag IDs for a genome from the packed store, or NULL if the genome is not in the packed store
+     *
+     * @param genomeId	ID of the target genome
+     */
+    private int[] getPackedTagIds(String genomeId) {
+        int[] retVal = null;
+        if (this.packedStore != null)
+            retVal = this.packedStore.getTagIds(genomeId);
         return retVal;
     }
 
+    /**
+     * Pack all the genomes in this directory into a single packed tag store, and delete the individual
+     * tag files.  The tag IDs are preserved, so count maps built before the packing remain valid.
+     *
+     * @throws IOException
+     */
+    public void pack() throws IOException {
+        File packFile = new File(this.dirName, PACK_FILE_NAME);
+        File tempFile = new File(this.dirName, PACK_FILE_NAME + ".tmp");
+        // Get a sorted list of all the genome IDs.
+        Set<String> genomeIds = new TreeSet<String>(this.fileMap.keySet());
+        if (this.packedStore != null)
+            genomeIds.addAll(this.packedStore.getGenomeIds());
+        log.info("Packing {} genomes into {}.", genomeIds.size(), packFile);
+        try (PackedTagStore.Writer writer = new PackedTagStore.Writer(tempFile, this.tagDict)) {
+            for (String genomeId : genomeIds)
+                writer.add(genomeId, this.getGenomeTagIds(genomeId));
+            writer.commit();
+        }
+        // Replace the old store with the new one.
+        if (this.packedStore != null)
+            this.packedStore.close();
+        Files.move(tempFile.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        this.packedStore = new PackedTagStore(packFile);
+        // The packed store now holds the whole vocabulary.
+        synchronized (this.vocabLock) {
+            FileUtils.deleteQuietly(new File(this.dirName, VOCAB_FILE_NAME));
+            this.vocabSize = this.packedStore.getTags().size();
+        }
+        // Now the individual files are redundant.
+        for (File genomeFile : this.fileMap.values())
+            FileUtils.forceDelete(genomeFile);
+        this.fileMap.clear();
+        this.packedOnly.set(this.packedStore.size());
+        if (this.cache != null)
+            this.cache.clear();
+    }
+
+    /**
+     * @return TRUE if this directory has a packed tag store
+     */
+    public boolean isPacked() {
+        return this.packedStore != null;
+    }
+
+    /**
+     * @return the name of this directory
+     */
+    public File getDirName() {
+        return this.dirName;
+    }
+
+    /**
+     * @return the tag dictionary for this directory
+     */
+    public TagDictionary getDictionary() {
+        return this.tagDict;
+    }
+
     /**
      * @return TRUE if the specified genome has a tag set in this directory
      *
      * @param genomeId	ID of the target genome
      */
     public boolean isInDirectory(String genomeId) {
-        return this.fileMap.containsKey(genomeId);
+        return this.fileMap.containsKey(genomeId) || (this.packedStore != null && this.packedStore.contains(genomeId));
     }
 
     /**
      * @return the number of genomes in this tag directory
      */
     public int size() {
-        return this.fileMap.size();
+        return this.fileMap.size() + this.packedOnly.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.packedStore != null) {
+            this.packedStore.close();
+            this.packedStore = null;
+        }
+        this.bitMaps = null;
+        if (this.cache != null)
+            this.cache.clear();
     }
 
 }
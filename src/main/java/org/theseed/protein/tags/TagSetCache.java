@@ -0,0 +1,161 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This object is a bounded cache of genome tag sets, stored as arrays of tag IDs.  The cache has a memory budget,
+ * and when adding a tag set would put it over the budget, the least-recently-used tag sets are evicted.  The cache
+ * keeps hit and miss counters so the client can judge its effectiveness.
+ *
+ * This object is thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TagSetCache {
+
+    // FIELDS
+    /** map of genome IDs to tag ID arrays, in access order */
+    private final LinkedHashMap<String, int[]> cacheMap;
+    /** memory budget in bytes */
+    private final long maxMemory;
+    /** estimated memory currently in use */
+    private long memory;
+    /** number of cache hits */
+    private long hits;
+    /** number of cache misses */
+    private long misses;
+    /** number of evictions */
+    private long evictions;
+    /** estimated overhead per cache entry (map entry, key string, array header) */
+    private static final int ENTRY_OVERHEAD = 120;
+
+    /**
+     * Construct a new, empty tag set cache.
+     *
+     * @param budget	maximum number of bytes of memory to use
+     */
+    public TagSetCache(long budget) {
+        this.maxMemory = budget;
+        this.cacheMap = new LinkedHashMap<String, int[]>(1000, 0.75f, true);
+        this.memory = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    /**
+     * @return the estimated memory size of a cache entry
+     *
+     * @param tagIds	tag ID array for the entry
+     */
+    private static long entrySize(int[] tagIds) {
+        return ENTRY_OVERHEAD + tagIds.length * 4L;
+    }
+
+    /**
+     * @return the cached tag IDs for a genome, or NULL if the genome is not in the cache
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public synchronized int[] get(String genomeId) {
+        int[] retVal = this.cacheMap.get(genomeId);
+        if (retVal == null)
+            this.misses++;
+        else
+            this.hits++;
+        return retVal;
+    }
+
+    /**
+     * Store a genome's tag IDs in the cache, evicting old entries if necessary.  The array must not be
+     * modified afterward.
+     *
+     * @param genomeId	ID of the genome
+     * @param tagIds	sorted array of the genome's tag IDs
+     */
+    public synchronized void put(String genomeId, int[] tagIds) {
+        long size = entrySize(tagIds);
+        // Only cache the entry if it fits the budget.
+        if (size <= this.maxMemory) {
+            int[] old = this.cacheMap.put(genomeId, tagIds);
+            if (old != null)
+                this.memory -= entrySize(old);
+            this.memory += size;
+            // Evict the least-recently-used entries until we are within the budget.
+            Iterator<Map.Entry<String, int[]>> iter = this.cacheMap.entrySet().iterator();
+            while (this.memory > this.maxMemory && iter.hasNext()) {
+                Map.Entry<String, int[]> entry = iter.next();
+                this.memory -= entrySize(entry.getValue());
+                iter.remove();
+                this.evictions++;
+            }
+        }
+    }
+
+    /**
+     * Remove a genome from the cache.
+     *
+     * @param genomeId	ID of the genome to remove
+     */
+    public synchronized void remove(String genomeId) {
+        int[] old = this.cacheMap.remove(genomeId);
+        if (old != null)
+            this.memory -= entrySize(old);
+    }
+
+    /**
+     * Erase all the entries in the cache.  The counters are not affected.
+     */
+    public synchronized void clear() {
+        this.cacheMap.clear();
+        this.memory = 0;
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * @return the estimated memory in use
+     */
+    public synchronized long getMemory() {
+        return this.memory;
+    }
+
+    /**
+     * @return the number of tag sets in the cache
+     */
+    public synchronized int size() {
+        return this.cacheMap.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d tag sets (%d bytes), %d hits, %d misses, %d evictions", this.cacheMap.size(), this.memory,
+                this.hits, this.misses, this.evictions);
+    }
+
+}
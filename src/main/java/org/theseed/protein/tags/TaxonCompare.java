@@ -8,15 +8,20 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ParseFailureException;
+import org.theseed.taxonomy.CompiledTaxTree;
+import org.theseed.taxonomy.TaxTree;
 import org.theseed.taxonomy.TaxonListDirectory;
 
 /**
@@ -39,11 +44,25 @@ public class TaxonCompare {
     /** taxonomic list directory */
     private TaxonListDirectory taxDir;
     /** taxonomic tree for the list directory */
-    private Map<Integer, Set<Integer>> taxTree;
+    private CompiledTaxTree taxTree;
     /** tag directory for tag loading */
     private TagDirectory tagDir;
     /** group comparison engine */
     private GroupCompareEngine compareEngine;
+    /** TRUE if tag counts should be aggregated bottom-up through the tree */
+    private boolean bottomUp;
+    /** number of worker threads for top-down sibling set processing */
+    private int workers;
+    /** maximum number of large sibling sets to process at once */
+    private int maxLarge;
+    /** TRUE if the grouping tag counts should be saved in and reused from a count cache */
+    private boolean useCountCache;
+    /** count cache being read during a comparison, or NULL if there is none */
+    private TaxonCountCache countCache;
+    /** count cache being written during a comparison, or NULL if there is none */
+    private TaxonCountCache.Writer cacheWriter;
+    /** maximum number of sibling count maps to merge serially in a total reduction */
+    private static final int REDUCE_CHUNK = 4;
 
     /**
      * This is a utility class that contains the data we need on a sibling genome set in order to
@@ -73,6 +92,19 @@ public class TaxonCompare {
             this.counts = TaxonCompare.this.tagDir.getTagCounts(genomeSet);
         }
 
+        /**
+         * Create the data for a taxonomic grouping from precomputed counts.
+         *
+         * @param id			taxonomic grouping ID
+         * @param size			number of genomes in the grouping
+         * @param counts		tag counts for the grouping
+         */
+        protected SiblingData(int id, int size, TagCounts counts) {
+            this.taxId = id;
+            this.size = size;
+            this.counts = counts;
+        }
+
         /**
          * @return the taxonomic group ID
          */
@@ -95,6 +127,154 @@ public class TaxonCompare {
         }
     }
 
+    /**
+     * This interface is used to receive the results of a comparison as they are computed.  The results for a sibling
+     * set are delivered as soon as the set is finished, so the client does not need to hold all the results at once.
+     * The sink is called from multiple threads, so it must be thread-safe.
+     */
+    public static interface ISink {
+
+        /**
+         * Receive the distinguishing tags for a taxonomic grouping.
+         *
+         * @param engineIdx		index of the comparison engine (threshold setting) that produced the result
+         * @param taxId			taxonomic ID of the grouping
+         * @param tags			set of distinguishing tags for the grouping
+         */
+        public void receive(int engineIdx, int taxId, Set<String> tags);
+
+    }
+
+    /**
+     * This is a result sink that collects the results in memory, with one map per comparison engine.
+     */
+    protected static class MapSink implements ISink {
+
+        /** list of output maps, one per engine */
+        private final List<Map<Integer, Set<String>>> outMaps;
+
+        /**
+         * Create a map sink for a specified number of comparison engines.
+         *
+         * @param n		number of comparison engines
+         */
+        protected MapSink(int n) {
+            this.outMaps = new ArrayList<Map<Integer, Set<String>>>(n);
+            // The output maps are concurrent, because we will be updating them in parallel.
+            for (int i = 0; i < n; i++)
+                this.outMaps.add(new ConcurrentHashMap<Integer, Set<String>>());
+        }
+
+        @Override
+        public void receive(int engineIdx, int taxId, Set<String> tags) {
+            this.outMaps.get(engineIdx).put(taxId, tags);
+        }
+
+        /**
+         * @return the list of output maps, in engine order
+         */
+        protected List<Map<Integer, Set<String>>> getOutMaps() {
+            return this.outMaps;
+        }
+
+    }
+
+    /**
+     * This object holds the comparison engines for a run and the sink that receives their results.  Most runs have a
+     * single engine, but a threshold sweep has one engine for each threshold setting.  The counts for each sibling
+     * set are only computed once, and are then passed to all the engines.
+     */
+    protected static class Results {
+
+        /** list of comparison engines */
+        private final List<GroupCompareEngine> engines;
+        /** sink for the results */
+        private final ISink sink;
+
+        /**
+         * Create the result holder for a list of comparison engines.
+         *
+         * @param engines	list of comparison engines to run
+         * @param sink		sink to receive the results
+         */
+        protected Results(List<GroupCompareEngine> engines, ISink sink) {
+            this.engines = engines;
+            this.sink = sink;
+        }
+
+        /**
+         * Compute and store the distinguishing tags for one member of a sibling set.
+         *
+         * @param taxId			taxonomic ID of the sibling
+         * @param counts		tag counts for the sibling
+         * @param size			number of genomes in the sibling
+         * @param totalTags		total tag counts for all the siblings
+         * @param totalSize		total number of genomes in all the siblings
+         */
+        protected void record(int taxId, TagCounts counts, int size, TagCounts totalTags, int totalSize) {
+            final int n = this.engines.size();
+            for (int i = 0; i < n; i++) {
+                Set<String> distinguishingTags = this.engines.get(i).distinguishFromRest(totalTags, totalSize, counts, size);
+                this.sink.receive(i, taxId, distinguishingTags);
+                if (n == 1)
+                    log.info("{} distinguishing tags found for {}.", distinguishingTags.size(), taxId);
+            }
+            if (n > 1)
+                log.info("Distinguishing tags found for {} at {} threshold settings.", taxId, n);
+        }
+
+    }
+
+    /**
+     * This task computes the total tag counts for a range of siblings by parallel tree reduction.  Small ranges are
+     * merged serially into a new count map; larger ranges are split in half, and the two halves' totals are merged.
+     * The siblings' own count maps are not modified.
+     */
+    protected class TotalReducer extends RecursiveTask<TagCounts> {
+
+        /** serialization ID */
+        private static final long serialVersionUID = 4172533516063725894L;
+        /** list of siblings to total */
+        private final List<SiblingData> siblingList;
+        /** index of the first sibling in the range */
+        private final int start;
+        /** index past the last sibling in the range */
+        private final int end;
+
+        /**
+         * Create a reduction task for a range of siblings.
+         *
+         * @param siblingList	list of siblings
+         * @param start			index of the first sibling to total
+         * @param end			index past the last sibling to total
+         */
+        protected TotalReducer(List<SiblingData> siblingList, int start, int end) {
+            this.siblingList = siblingList;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected TagCounts compute() {
+            TagCounts retVal;
+            if (this.end - this.start <= REDUCE_CHUNK) {
+                retVal = TaxonCompare.this.tagDir.createTagCounts();
+                for (int i = this.start; i < this.end; i++)
+                    retVal.merge(this.siblingList.get(i).getCounts());
+            } else {
+                int mid = (this.start + this.end) >>> 1;
+                TotalReducer left = new TotalReducer(this.siblingList, this.start, mid);
+                left.fork();
+                retVal = new TotalReducer(this.siblingList, mid, this.end).compute();
+                TagCounts leftCounts = left.join();
+                leftCounts.merge(retVal);
+                retVal = leftCounts;
+            }
+            return retVal;
+        }
+
+    }
+
     /**
      * Construct a new taxon comparison object.
      *
@@ -145,59 +325,392 @@ public class TaxonCompare {
      * @throws ParseFailureException
      */
     public void initialize(double absent, double present) throws IOException, ParseFailureException {
-        this.taxTree = this.taxDir.getTaxTree();
+        this.bottomUp = false;
+        this.workers = Runtime.getRuntime().availableProcessors();
+        this.maxLarge = 2;
+        this.useCountCache = false;
+        this.countCache = null;
+        this.cacheWriter = null;
+        this.taxTree = this.taxDir.getCompiledTree();
         this.compareEngine = new GroupCompareEngine(this.tagDir, absent, present);
     }
 
+    /**
+     * Specify whether the tag counts should be aggregated bottom-up.  In bottom-up mode, the tree is walked from the
+     * leaves upward, and each grouping's tag counts are computed as the sum of its children's counts, so each genome's
+     * tags are read only once.  Otherwise, the counts for each sibling set are computed independently from the genome
+     * lists, which uses less memory but reads each genome once per ancestor.
+     *
+     * @param bottomUp	TRUE to aggregate bottom-up, FALSE to count each sibling set independently
+     */
+    public void setBottomUp(boolean bottomUp) {
+        this.bottomUp = bottomUp;
+    }
+
+    /**
+     * Specify the number of worker threads for processing sibling sets.  This is only used for top-down processing.
+     *
+     * @param workers	number of worker threads to use
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Specify the maximum number of large sibling sets that can be processed at once.  A sibling set is large if it
+     * contains more than its fair share of the genomes (the total genome count in all sibling sets divided by the number
+     * of workers).  Each sibling set in flight holds a tag count map for every sibling, so this limits memory use on big
+     * taxonomies.
+     *
+     * @param maxLarge	maximum number of large sibling sets in flight
+     */
+    public void setMaxLarge(int maxLarge) {
+        this.maxLarge = maxLarge;
+    }
+
+    /**
+     * Specify whether the grouping tag counts should be cached.  If the cache is on, the tag counts for each grouping
+     * are saved in a cache file in the taxonomic list directory.  A later comparison with the cache on will read the
+     * counts from the file instead of the tag directory, as long as neither directory has changed.  The counts do not
+     * depend on the absence and presence thresholds, so the cache can be reused when only the thresholds change.
+     *
+     * @param useCountCache		TRUE to save and reuse grouping tag counts, else FALSE
+     */
+    public void setCountCache(boolean useCountCache) {
+        this.useCountCache = useCountCache;
+    }
+
+    /**
+     * Create a comparison engine for this object's tag directory with different tuning parameters.  This is used to
+     * set up a threshold sweep.
+     *
+     * @param absent		maximum fraction of a set allowed for an absent tag
+     * @param present		minimum fraction of a set allowed for a present tag
+     *
+     * @return a comparison engine with the specified tuning parameters
+     *
+     * @throws ParseFailureException
+     */
+    public GroupCompareEngine createEngine(double absent, double present) throws ParseFailureException {
+        return new GroupCompareEngine(this.tagDir, absent, present);
+    }
+
     /**
      * Perform the mass comparison.
      *
      * @return a map from taxonomic group IDs to distinguishing tag sets
+     *
+     * @throws IOException
      */
-    public Map<Integer, Set<String>> computeDistinguishingTags() {
-        // Create the return map.  It is concurrent, because we will be updating it in parallel.
-        final Map<Integer, Set<String>> retVal = new ConcurrentHashMap<Integer, Set<String>>();
-        // Loop through the tree, processing children of sibling sets.  Comparisons only
-        // matter if there is more than one sibling in the set.
-        Set<Set<Integer>> siblingSets = this.taxTree.values().stream().filter(x -> x.size() > 1).collect(Collectors.toSet());
-        siblingSets.parallelStream().forEach(x -> this.processChildren(retVal, x));
-        return retVal;
+    public Map<Integer, Set<String>> computeDistinguishingTags() throws IOException {
+        return this.computeDistinguishingTags(List.of(this.compareEngine)).get(0);
+    }
+
+    /**
+     * Perform the mass comparison for multiple threshold settings.  The tag counts are computed once, and each
+     * comparison engine is applied to them, so this costs little more than a single comparison.
+     *
+     * @param engines	list of comparison engines, one per threshold setting
+     *
+     * @return a list of maps from taxonomic group IDs to distinguishing tag sets, one per engine in the same order
+     *
+     * @throws IOException
+     */
+    public List<Map<Integer, Set<String>>> computeDistinguishingTags(List<GroupCompareEngine> engines) throws IOException {
+        MapSink retVal = new MapSink(engines.size());
+        this.computeDistinguishingTags(engines, retVal);
+        return retVal.getOutMaps();
+    }
+
+    /**
+     * Perform the mass comparison and deliver the results to a sink as each sibling set finishes.
+     *
+     * @param sink		thread-safe sink to receive the results
+     *
+     * @throws IOException
+     */
+    public void computeDistinguishingTags(ISink sink) throws IOException {
+        this.computeDistinguishingTags(List.of(this.compareEngine), sink);
+    }
+
+    /**
+     * Perform the mass comparison for multiple threshold settings and deliver the results to a sink as each sibling
+     * set finishes.  The engine index passed to the sink is the engine's position in the engine list.
+     *
+     * @param engines	list of comparison engines, one per threshold setting
+     * @param sink		thread-safe sink to receive the results
+     *
+     * @throws IOException
+     */
+    public void computeDistinguishingTags(List<GroupCompareEngine> engines, ISink sink) throws IOException {
+        final Results results = new Results(engines, sink);
+        if (this.useCountCache)
+            this.openCountCache();
+        try {
+            this.computeDistinguishingTags(results);
+            if (this.cacheWriter != null)
+                this.cacheWriter.commit();
+        } finally {
+            this.closeCountCache();
+        }
+        TagSetCache cache = this.tagDir.getCache();
+        if (cache != null)
+            log.info("Tag set cache: {}.", cache);
+    }
+
+    /**
+     * Perform the mass comparison into a specified result holder.
+     *
+     * @param retVal	result holder for the comparison engines and output maps
+     *
+     * @throws IOException
+     */
+    private void computeDistinguishingTags(final Results retVal) throws IOException {
+        // Bottom-up aggregation only saves tag reading, so it is pointless if the counts are cached.
+        if (this.bottomUp && this.countCache == null)
+            this.aggregateTree(retVal);
+        else {
+            // Loop through the tree, processing children of sibling sets.  Comparisons only
+            // matter if there is more than one sibling in the set.
+            List<Set<Integer>> siblingSets = this.getSiblingSets();
+            // The cost of a sibling set is the number of genomes whose tags must be counted.  We schedule the
+            // sets largest-first, so the big ones near the root do not run alone at the end.
+            Map<Integer, Set<String>> genomeSets = this.getTreeGenomeSets();
+            CostScheduler<Set<Integer>> scheduler = new CostScheduler<Set<Integer>>(this.workers, this.maxLarge);
+            for (Set<Integer> siblings : siblingSets) {
+                long cost = 0;
+                for (int siblingId : siblings)
+                    cost += genomeSets.get(siblingId).size();
+                scheduler.add(siblings, cost);
+            }
+            scheduler.run(x -> this.processChildren(retVal, x, genomeSets));
+        }
+    }
+
+    /**
+     * Set up the count cache for a comparison.  If there is a cache file for the current directory contents, it is
+     * opened for reading.  Otherwise, a new one is opened for writing.
+     *
+     * @throws IOException
+     */
+    private void openCountCache() throws IOException {
+        File cacheFile = new File(this.taxDir.getDirName(), TaxonCountCache.CACHE_FILE_NAME);
+        log.info("Computing directory fingerprint for count cache {}.", cacheFile);
+        byte[] fingerprint = TaxonCountCache.fingerprint(this.taxDir.getDirName(), this.tagDir.getDirName());
+        if (cacheFile.canRead()) {
+            TaxonCountCache oldCache = null;
+            try {
+                oldCache = new TaxonCountCache(cacheFile, this.tagDir.getDictionary());
+            } catch (IOException e) {
+                log.warn("Count cache {} is unreadable: {}", cacheFile, e.toString());
+            }
+            if (oldCache != null) {
+                if (oldCache.matches(fingerprint)) {
+                    log.info("Using tag counts from count cache {}.", cacheFile);
+                    this.countCache = oldCache;
+                } else {
+                    log.info("Count cache {} is out of date.", cacheFile);
+                    oldCache.close();
+                }
+            }
+        }
+        if (this.countCache == null) {
+            log.info("Tag counts will be saved to count cache {}.", cacheFile);
+            this.cacheWriter = new TaxonCountCache.Writer(cacheFile, this.tagDir.getDictionary(), fingerprint);
+        }
+    }
+
+    /**
+     * Close the count cache at the end of a comparison.  If a new cache was being written and has not been committed,
+     * it is discarded.
+     *
+     * @throws IOException
+     */
+    private void closeCountCache() throws IOException {
+        try {
+            if (this.countCache != null)
+                this.countCache.close();
+            if (this.cacheWriter != null)
+                this.cacheWriter.close();
+        } finally {
+            this.countCache = null;
+            this.cacheWriter = null;
+        }
     }
 
     /**
      * Find the distinguishing tags for all the specified siblings.  The distinguishing tags for a
      * sibling are those that are present in the sibling but not in any of its peers.
      *
-     * @param outMap	output map of taxon IDs to distinguishing-tag sets
-     * @param siblings	set of siblings to process
+     * @param results		result holder for the comparison engines and output maps
+     * @param siblings		set of siblings to process
+     * @param genomeSets	map of taxonomic IDs to genome sets
+     *
+     * @throws IOException
+     */
+    protected void processChildren(Results results, Set<Integer> siblings,
+            Map<Integer, Set<String>> genomeSets) throws IOException {
+        // For each sibling we need to know the size of its genome set and its tag counts.
+        List<SiblingData> siblingList = this.getList(siblings, genomeSets);
+        // Create the master tag counts for the parent.
+        TagCounts totalTags = this.totalCounts(siblingList);
+        int totalSize = siblingList.stream().mapToInt(x -> x.getSize()).sum();
+        this.compareSiblings(results, siblingList, totalTags, totalSize);
+    }
+
+    /**
+     * @return the total tag counts for a list of siblings, computed by parallel tree reduction
+     *
+     * @param siblingList	list of sibling data objects to total
+     */
+    private TagCounts totalCounts(List<SiblingData> siblingList) {
+        return new TotalReducer(siblingList, 0, siblingList.size()).invoke();
+    }
+
+    /**
+     * Compute the distinguishing tags for each member of a sibling set and store them in the output maps.  The
+     * siblings are processed in parallel.
+     *
+     * @param results		result holder for the comparison engines and output maps
+     * @param siblingList	list of sibling data objects for the siblings
+     * @param totalTags		total tag counts for all the siblings
+     * @param totalSize		total number of genomes in all the siblings
+     */
+    private void compareSiblings(Results results, List<SiblingData> siblingList, TagCounts totalTags, int totalSize) {
+        siblingList.parallelStream().forEach(data -> results.record(data.getTaxId(), data.getCounts(), data.getSize(),
+                totalTags, totalSize));
+    }
+
+    /**
+     * Perform the mass comparison bottom-up.  The tree is walked recursively from the root, and each grouping's
+     * counts are computed from its children's counts on the way back up.  The sibling comparison for a grouping's
+     * children is done as soon as the children's counts are available, after which the children's counts are
+     * discarded.
+     *
+     * @param results	result holder for the comparison engines and output maps
+     *
+     * @throws IOException
      */
-    protected void processChildren(Map<Integer, Set<String>> outMap, Set<Integer> siblings) {
+    private void aggregateTree(Results results) throws IOException {
+        Map<Integer, Set<String>> genomeSets = this.getTreeGenomeSets();
         try {
-            // For each sibling we need to know the size of its genome set and its tag counts.
-            List<SiblingData> siblingList = this.getList(siblings);
-            // Create the master tag counts for the parent.
-            TagCounts totalTags = new TagCounts();
-            int totalSize = 0;
-            for (SiblingData data : siblingList) {
-                totalTags.merge(data.getCounts());
-                totalSize += data.getSize();
-            }
-            // Now we compute the distinguishing sets and store them in the output map.
-            for (SiblingData data : siblingList) {
-                final int taxId = data.getTaxId();
-                int leftSize = data.getSize();
-                int rightSize = totalSize - leftSize;
-                TagCounts leftTags = data.getCounts();
-                TagCounts rightTags = totalTags.minus(leftTags);
-                Set<String> distinguishingTags = this.compareEngine.distinguishLeft(leftTags, leftSize, rightTags, rightSize);
-                outMap.put(taxId, distinguishingTags);
-                log.info("{} distinguishing tags found for {}.", distinguishingTags.size(), taxId);
+            this.aggregateNode(results, genomeSets, TaxTree.ROOT_GROUP);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return a map from each grouping in the taxonomic tree to its genome set
+     *
+     * @throws IOException
+     */
+    private Map<Integer, Set<String>> getTreeGenomeSets() throws IOException {
+        Set<Integer> taxSet = new HashSet<Integer>(this.taxTree.size() * 4 / 3 + 1);
+        for (int taxId : this.taxTree.getTaxIds()) {
+            if (taxId != TaxTree.ROOT_GROUP)
+                taxSet.add(taxId);
+        }
+        log.info("Loading genome sets for {} taxonomic groupings.", taxSet.size());
+        return this.taxDir.getGenomeSets(taxSet);
+    }
+
+    /**
+     * Compute the tag counts for a grouping from its children, processing the comparison for the children
+     * if there are two or more.
+     *
+     * @param results		result holder for the comparison engines and output maps
+     * @param genomeSets	map of taxonomic IDs to genome sets
+     * @param taxId			ID of the grouping to process
+     *
+     * @return the sibling data for the grouping
+     */
+    private SiblingData aggregateNode(Results results, Map<Integer, Set<String>> genomeSets, int taxId) {
+        try {
+            SiblingData retVal;
+            Set<String> genomes = genomeSets.get(taxId);
+            int[] children = this.taxTree.getChildren(taxId);
+            if (children.length == 0 && taxId != TaxTree.ROOT_GROUP) {
+                // Here we have a leaf, so we must read the tags.
+                retVal = new SiblingData(taxId, genomes);
+            } else {
+                // Compute the children's data.
+                List<SiblingData> childList = Arrays.stream(children).parallel()
+                        .mapToObj(x -> this.aggregateNode(results, genomeSets, x)).collect(Collectors.toList());
+                // Form the totals.
+                TagCounts totalTags = this.totalCounts(childList);
+                int totalSize = childList.stream().mapToInt(x -> x.getSize()).sum();
+                if (childList.size() > 1) {
+                    if (this.cacheWriter != null) {
+                        for (SiblingData child : childList)
+                            this.cacheWriter.add(child.getTaxId(), child.getSize(), child.getCounts());
+                    }
+                    this.compareSiblings(results, childList, totalTags, totalSize);
+                }
+                if (genomes == null) {
+                    // This is the virtual root, so the children's totals are all we need.
+                    retVal = new SiblingData(taxId, totalSize, totalTags);
+                } else {
+                    // The grouping may contain genomes not in any child.  These must be counted directly.
+                    Set<String> residual = new HashSet<String>(genomes);
+                    int childGenomes = 0;
+                    for (int childId : children) {
+                        Set<String> childSet = genomeSets.get(childId);
+                        residual.removeAll(childSet);
+                        childGenomes += childSet.size();
+                    }
+                    if (residual.size() + childGenomes != genomes.size()) {
+                        // The children overlap or contain genomes not in the parent.  This can only happen if the
+                        // genome lineages are inconsistent, and in that case we count the grouping directly.
+                        log.warn("Genome sets of children of {} are inconsistent with their parent.", taxId);
+                        retVal = new SiblingData(taxId, genomes);
+                    } else {
+                        if (! residual.isEmpty())
+                            totalTags.merge(this.tagDir.getTagCounts(residual));
+                        retVal = new SiblingData(taxId, genomes.size(), totalTags);
+                    }
+                }
             }
+            return retVal;
         } catch (IOException e) {
             // Convert IO exceptions to unchecked so we can stream this method.
             throw new UncheckedIOException(e);
         }
     }
+    /**
+     * @return the set of IDs for the taxonomic groupings that will be compared (those with at least one sibling)
+     */
+    public Set<Integer> getComparedGroups() {
+        Set<Integer> retVal = new HashSet<Integer>();
+        for (Set<Integer> siblings : this.getSiblingSets())
+            retVal.addAll(siblings);
+        return retVal;
+    }
+
+    /**
+     * @return a list of the sets of sibling groupings in the tree that have more than one member
+     */
+    private List<Set<Integer>> getSiblingSets() {
+        List<Set<Integer>> retVal = new ArrayList<Set<Integer>>();
+        for (int taxId : this.taxTree.getTaxIds()) {
+            if (this.taxTree.getChildCount(taxId) > 1) {
+                int[] children = this.taxTree.getChildren(taxId);
+                Set<Integer> siblings = new HashSet<Integer>(children.length * 4 / 3 + 1);
+                for (int childId : children)
+                    siblings.add(childId);
+                retVal.add(siblings);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the tag directory used by this comparison
+     */
+    public TagDirectory getTagDirectory() {
+        return this.tagDir;
+    }
+
     /**
      * @return a map from the specified taxonomic IDs to names
      *
@@ -209,25 +722,51 @@ public class TaxonCompare {
         return this.taxDir.getNameMap(taxSet);
     }
     /**
-     * Compute the necessary data for each sibling-- tag counts, ID, and set size
+     * Compute the necessary data for each sibling-- tag counts, ID, and set size.  The siblings are loaded
+     * in parallel.
      *
-     * @param siblings	set of sibling IDs to process
+     * @param siblings		set of sibling IDs to process
+     * @param genomeSets	map of taxonomic IDs to genome sets
      *
      * @return a list of sibling-data objects for the siblings
      *
      * @throws IOException
      */
-    private List<SiblingData> getList(Set<Integer> siblings) throws IOException {
-        List<SiblingData> retVal = new ArrayList<SiblingData>(siblings.size());
-        // Create a map from the siblings to their genome sets.
-        Map<Integer, Set<String>> siblingMap = this.taxDir.getGenomeSets(siblings);
-        // Loop through the siblings, creating the sibling data objects.
-        for (Integer siblingId : siblings) {
-            Set<String> genomes = siblingMap.get(siblingId);
-            SiblingData data = new SiblingData(siblingId, genomes);
-            retVal.add(data);
+    private List<SiblingData> getList(Set<Integer> siblings, Map<Integer, Set<String>> genomeSets) throws IOException {
+        try {
+            return siblings.parallelStream().map(x -> this.loadSibling(x, genomeSets.get(x))).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Compute the sibling data for a single taxonomic grouping.  If there is a count cache, the counts are taken
+     * from it.  If a cache is being written, the counts are added to it.
+     *
+     * @return the sibling data for the grouping
+     *
+     * @param taxId		ID of the grouping
+     * @param genomes	set of IDs for the genomes in the grouping
+     */
+    private SiblingData loadSibling(int taxId, Set<String> genomes) {
+        try {
+            SiblingData retVal = null;
+            if (this.countCache != null) {
+                TagCounts counts = this.countCache.getCounts(taxId);
+                if (counts != null)
+                    retVal = new SiblingData(taxId, this.countCache.getSize(taxId), counts);
+            }
+            if (retVal == null) {
+                retVal = new SiblingData(taxId, genomes);
+                if (this.cacheWriter != null)
+                    this.cacheWriter.add(taxId, retVal.getSize(), retVal.getCounts());
+            }
+            return retVal;
+        } catch (IOException e) {
+            // Convert IO exceptions to unchecked so we can stream this method.
+            throw new UncheckedIOException(e);
         }
-        return retVal;
     }
 
 }
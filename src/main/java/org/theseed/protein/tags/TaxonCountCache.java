@@ -0,0 +1,422 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object manages a persistent cache of the tag counts for the taxonomic groupings in a taxonomic comparison.
+ * The counts do not depend on the comparison thresholds, so once they are cached, a comparison can be re-run with
+ * different thresholds without reading any tag sets.  The cache file lives in the taxonomic list directory.
+ *
+ * The cache is only valid for the tag directory and taxonomic list directory it was built from.  To enforce this,
+ * the header contains a fingerprint computed from the names, sizes, and modification times of all the files in both
+ * directories.  Reading file metadata is much cheaper than reading the tag files themselves, which the cache exists
+ * to avoid.
+ *
+ * The file begins with a header containing a magic number, a version number, the file position of the index, and
+ * the fingerprint.  This is followed by the data area, which contains the nonzero counts for each grouping as
+ * pairs of 4-byte integers (tag number and count).  The index comes last.  It contains the tag list (a tag count
+ * followed by the tags in tag-number order) and the grouping index (a grouping count followed by the taxonomic ID,
+ * data position, genome count, and pair count of each grouping).  The tag numbers are private to the file, and are
+ * converted to the client's tag IDs when the cache is opened.  Opening a cache never adds tags to the client's
+ * dictionary.  If the cache contains a tag the dictionary does not know, the cache is out of date and will not
+ * match any fingerprint.
+ *
+ * Once opened, the cache is read-only and thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TaxonCountCache implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(TaxonCountCache.class);
+    /** name of the cache file */
+    private File fileName;
+    /** file channel for the cache */
+    private FileChannel channel;
+    /** fingerprint of the directories the cache was built from */
+    private byte[] fingerprint;
+    /** map of taxonomic IDs to index entries */
+    private Map<Integer, Entry> index;
+    /** map of file tag numbers to client tag IDs (-1 for tags not in the client dictionary) */
+    private int[] idMap;
+    /** number of tags in the file that are not in the client dictionary */
+    private int unknownTags;
+    /** tag dictionary for the client tag IDs */
+    private TagDictionary tagDict;
+    /** name of the cache file in the taxonomic list directory */
+    public static final String CACHE_FILE_NAME = "taxon.counts";
+    /** magic number identifying a taxon count cache */
+    private static final int MAGIC = 0x54434E54;
+    /** current file format version */
+    private static final int VERSION = 1;
+    /** name of the fingerprint digest algorithm */
+    private static final String DIGEST_TYPE = "SHA-256";
+    /** length of a fingerprint */
+    private static final int FINGERPRINT_SIZE = 32;
+    /** length of the file header */
+    private static final int HEADER_SIZE = 16 + FINGERPRINT_SIZE;
+
+    /**
+     * This object describes the location of a grouping's counts in the data area.
+     */
+    private static class Entry {
+
+        /** position of the count pairs in the file */
+        private long position;
+        /** number of genomes in the grouping */
+        private int size;
+        /** number of count pairs */
+        private int length;
+
+        /**
+         * Construct an index entry.
+         *
+         * @param position	file position of the first count pair
+         * @param size		number of genomes in the grouping
+         * @param length	number of count pairs
+         */
+        protected Entry(long position, int size, int length) {
+            this.position = position;
+            this.size = size;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * This object writes a taxon count cache.  The groupings can be added from multiple threads.  The file is
+     * written under a temporary name, and only replaces the real cache file when the writer is committed, so an
+     * interrupted run never leaves behind a partial cache.
+     */
+    public static class Writer implements AutoCloseable {
+
+        /** output file name */
+        private File outFile;
+        /** temporary file name */
+        private File tempFile;
+        /** output stream */
+        private DataOutputStream outStream;
+        /** current output position */
+        private long position;
+        /** map of taxonomic IDs to index entries */
+        private Map<Integer, Entry> index;
+        /** tag dictionary for the tag IDs */
+        private TagDictionary tagDict;
+        /** TRUE if the cache has been committed */
+        private boolean committed;
+
+        /**
+         * Open a taxon count cache for output.
+         *
+         * @param outFile		name of the output file
+         * @param dict			tag dictionary that defines the tag IDs
+         * @param fingerprint	fingerprint of the directories being cached
+         *
+         * @throws IOException
+         */
+        public Writer(File outFile, TagDictionary dict, byte[] fingerprint) throws IOException {
+            this.outFile = outFile;
+            this.tempFile = new File(outFile.getParentFile(), outFile.getName() + ".tmp");
+            this.tagDict = dict;
+            this.outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.tempFile)));
+            // Write the header.  The index position will be filled in when we commit.
+            this.outStream.writeInt(MAGIC);
+            this.outStream.writeInt(VERSION);
+            this.outStream.writeLong(0L);
+            this.outStream.write(fingerprint);
+            this.position = HEADER_SIZE;
+            this.index = new HashMap<Integer, Entry>();
+            this.committed = false;
+        }
+
+        /**
+         * Add a grouping's counts to the cache.  If the grouping is already present, it will not be added again.
+         *
+         * @param taxId		taxonomic ID of the grouping
+         * @param size		number of genomes in the grouping
+         * @param counts	tag counts for the grouping
+         *
+         * @throws IOException
+         */
+        public synchronized void add(int taxId, int size, TagCounts counts) throws IOException {
+            if (! this.index.containsKey(taxId)) {
+                int length = 0;
+                if (counts instanceof ArrayTagCounts && ((ArrayTagCounts) counts).getDictionary() == this.tagDict) {
+                    final int[] countArray = ((ArrayTagCounts) counts).getCountArray();
+                    for (int i = 0; i < countArray.length; i++) {
+                        if (countArray[i] != 0) {
+                            this.outStream.writeInt(i);
+                            this.outStream.writeInt(countArray[i]);
+                            length++;
+                        }
+                    }
+                } else {
+                    for (var counter : counts.getAllCounts()) {
+                        final int count = counter.getValue().getValue();
+                        if (count != 0) {
+                            this.outStream.writeInt(this.tagDict.getId(counter.getKey()));
+                            this.outStream.writeInt(count);
+                            length++;
+                        }
+                    }
+                }
+                this.index.put(taxId, new Entry(this.position, size, length));
+                this.position += length * 8L;
+            }
+        }
+
+        /**
+         * Write the index and install the cache file.
+         *
+         * @throws IOException
+         */
+        public synchronized void commit() throws IOException {
+            // Write the tag list.
+            final long indexPosition = this.position;
+            final int nTags = this.tagDict.size();
+            this.outStream.writeInt(nTags);
+            for (int i = 0; i < nTags; i++)
+                this.outStream.writeUTF(this.tagDict.getTag(i));
+            // Write the grouping index.
+            this.outStream.writeInt(this.index.size());
+            for (var indexEntry : this.index.entrySet()) {
+                Entry entry = indexEntry.getValue();
+                this.outStream.writeInt(indexEntry.getKey());
+                this.outStream.writeLong(entry.position);
+                this.outStream.writeInt(entry.size);
+                this.outStream.writeInt(entry.length);
+            }
+            this.outStream.close();
+            // Fill in the index position in the header.
+            try (RandomAccessFile patcher = new RandomAccessFile(this.tempFile, "rw")) {
+                patcher.seek(8);
+                patcher.writeLong(indexPosition);
+            }
+            Files.move(this.tempFile.toPath(), this.outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            this.committed = true;
+            log.info("{} taxonomic groupings and {} tags written to count cache {}.", this.index.size(), nTags,
+                    this.outFile);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (! this.committed) {
+                // Here the cache is incomplete, so we throw it away.
+                this.outStream.close();
+                FileUtils.deleteQuietly(this.tempFile);
+            }
+        }
+
+    }
+
+    /**
+     * Open an existing taxon count cache.
+     *
+     * @param cacheFile		name of the cache file
+     * @param dict			tag dictionary to use for the tag IDs of the counts returned
+     *
+     * @throws IOException
+     */
+    public TaxonCountCache(File cacheFile, TagDictionary dict) throws IOException {
+        this.fileName = cacheFile;
+        this.tagDict = dict;
+        this.channel = FileChannel.open(cacheFile.toPath());
+        try {
+            // Read the header.  Note we do not close the input stream, because that would close the channel.
+            DataInputStream inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+            if (inStream.readInt() != MAGIC)
+                throw new IOException(cacheFile + " is not a taxon count cache.");
+            int version = inStream.readInt();
+            if (version != VERSION)
+                throw new IOException(cacheFile + " has unsupported taxon count cache version " + version + ".");
+            final long indexPosition = inStream.readLong();
+            if (indexPosition < HEADER_SIZE)
+                throw new IOException(cacheFile + " is incomplete.");
+            this.fingerprint = new byte[FINGERPRINT_SIZE];
+            inStream.readFully(this.fingerprint);
+            // Read the index.  The tag list is converted to client tag IDs as we go.
+            this.channel.position(indexPosition);
+            inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+            final int nTags = inStream.readInt();
+            this.idMap = new int[nTags];
+            this.unknownTags = 0;
+            for (int i = 0; i < nTags; i++) {
+                int id = dict.findId(inStream.readUTF());
+                if (id < 0)
+                    this.unknownTags++;
+                this.idMap[i] = id;
+            }
+            if (this.unknownTags > 0)
+                log.info("{} tags in count cache {} are not in the tag dictionary.", this.unknownTags, cacheFile);
+            final int nGroups = inStream.readInt();
+            this.index = new HashMap<Integer, Entry>(nGroups * 4 / 3 + 1);
+            for (int i = 0; i < nGroups; i++) {
+                int taxId = inStream.readInt();
+                long dataPos = inStream.readLong();
+                int size = inStream.readInt();
+                int length = inStream.readInt();
+                this.index.put(taxId, new Entry(dataPos, size, length));
+            }
+            log.info("{} taxonomic groupings and {} tags found in count cache {}.", nGroups, nTags, cacheFile);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the fingerprint of the directories this cache was built from
+     */
+    public byte[] getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * @return TRUE if this cache was built from directories with the specified fingerprint and all of its tags are
+     * 		   in the client dictionary
+     *
+     * @param other		fingerprint of the current directories
+     */
+    public boolean matches(byte[] other) {
+        return (this.unknownTags == 0 && Arrays.equals(this.fingerprint, other));
+    }
+
+    /**
+     * @return the number of genomes in a grouping, or -1 if the grouping is not in the cache
+     *
+     * @param taxId		taxonomic ID of the grouping of interest
+     */
+    public int getSize(int taxId) {
+        Entry entry = this.index.get(taxId);
+        return (entry == null ? -1 : entry.size);
+    }
+
+    /**
+     * @return the tag counts for a grouping, or NULL if the grouping is not in the cache
+     *
+     * @param taxId		taxonomic ID of the grouping of interest
+     *
+     * @throws IOException
+     */
+    public ArrayTagCounts getCounts(int taxId) throws IOException {
+        ArrayTagCounts retVal = null;
+        Entry entry = this.index.get(taxId);
+        if (entry != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length * 8);
+            long pos = entry.position;
+            while (buffer.hasRemaining()) {
+                int n = this.channel.read(buffer, pos);
+                if (n < 0)
+                    throw new IOException("Unexpected end of file in count cache " + this.fileName + ".");
+                pos += n;
+            }
+            buffer.flip();
+            int[] counts = new int[this.tagDict.size()];
+            for (int i = 0; i < entry.length; i++) {
+                int id = this.idMap[buffer.getInt()];
+                if (id < 0)
+                    throw new IOException("Count cache " + this.fileName + " contains tags not in the tag dictionary.");
+                counts[id] = buffer.getInt();
+            }
+            retVal = new ArrayTagCounts(this.tagDict, counts);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of groupings in this cache
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * @return the name of the cache file
+     */
+    public File getFileName() {
+        return this.fileName;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Compute the fingerprint for a pair of directories.  The fingerprint is a digest of the name, length, and
+     * modification time of every file in the two directories, in name order.  Subdirectories and the cache file
+     * itself are skipped.  The file contents are not read.
+     *
+     * @param taxDir	taxonomic list directory
+     * @param tagDir	tag directory
+     *
+     * @return the fingerprint of the directory contents
+     *
+     * @throws IOException
+     */
+    public static byte[] fingerprint(File taxDir, File tagDir) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_TYPE);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Digest algorithm " + DIGEST_TYPE + " is not available.", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (File dir : new File[] { taxDir, tagDir }) {
+            List<File> files = new ArrayList<File>();
+            File[] dirFiles = dir.listFiles();
+            if (dirFiles == null)
+                throw new IOException("Cannot list files in directory " + dir + ".");
+            for (File file : dirFiles) {
+                String name = file.getName();
+                if (file.isFile() && ! name.startsWith(CACHE_FILE_NAME))
+                    files.add(file);
+            }
+            files.sort((a, b) -> a.getName().compareTo(b.getName()));
+            // Separate the two directories, so a file cannot be moved from one to the other undetected.
+            digest.update((byte) 0);
+            for (File file : files) {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+                buffer.clear();
+                buffer.putLong(attributes.size());
+                buffer.putLong(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+                buffer.flip();
+                digest.update(buffer);
+            }
+        }
+        return digest.digest();
+    }
+
+}
@@ -5,7 +5,6 @@ package org.theseed.protein.tags.scanner;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -19,6 +18,10 @@ import org.theseed.genome.Genome;
  * This is the base class for feature scanners.  A feature scanner finds all the tags for a genome's features
  * and returns them as a set.
  *
+ * Subclasses emit the tags for each feature into a tag sink supplied by the caller, rather than returning a
+ * collection, so that scanning a genome creates no per-feature objects.  The sink can collect the tags in any
+ * form it likes; for example, TagDirectory converts them directly to tag IDs in a reusable bit set.
+ *
  * @author Bruce Parrello
  *
  */
@@ -27,8 +30,6 @@ public abstract class FeatureScanner {
     // FIELDS
     /** logging facility */
     protected static Logger log = LoggerFactory.getLogger(FeatureScanner.class);
-    /** empty set for subclasses to return */
-    protected static final Set<String> EMPTY_TAG_SET = Collections.emptySet();
 
     /**
      * This interface specifies the information that a controlling command processor must
@@ -43,6 +44,21 @@ public abstract class FeatureScanner {
 
     }
 
+    /**
+     * This interface receives the tags found by a scan.  A tag may be sent more than once.
+     */
+    @FunctionalInterface
+    public interface ITagSink {
+
+        /**
+         * Receive a tag.
+         *
+         * @param tag	tag found by the scanner
+         */
+        public void accept(String tag);
+
+    }
+
     /**
      * This enum specifies the different types of feature scanners.
      */
@@ -93,13 +109,21 @@ public abstract class FeatureScanner {
      */
     public final Set<String> getTags(Genome genome) {
         Set<String> retVal = new HashSet<String>();
-        for (Feature feat : genome.getFeatures()) {
-            Set<String> tags = this.getFeatureTags(feat);
-            retVal.addAll(tags);
-        }
+        this.scanGenome(genome, retVal::add);
         return retVal;
     }
 
+    /**
+     * Scan a genome, sending each tag found to a tag sink.
+     *
+     * @param genome	genome to scan
+     * @param sink		tag sink to receive the tags
+     */
+    public final void scanGenome(Genome genome, ITagSink sink) {
+        for (Feature feat : genome.getFeatures())
+            this.scanFeature(feat, sink);
+    }
+
     /**
      * @return the name of a tag
      *
@@ -108,10 +132,11 @@ public abstract class FeatureScanner {
     public abstract String getTagName(String tag);
 
     /**
-     * @return the set of tags for the current feature
+     * Send the tags for a feature to a tag sink.
      *
      * @param feat		feature to scan
+     * @param sink		tag sink to receive the tags
      */
-    protected abstract Set<String> getFeatureTags(Feature feat);
+    protected abstract void scanFeature(Feature feat, ITagSink sink);
 
 }
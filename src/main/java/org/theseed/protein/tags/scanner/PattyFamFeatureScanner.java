@@ -3,8 +3,6 @@
  */
 package org.theseed.protein.tags.scanner;
 
-import java.util.Set;
-
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.genome.Feature;
 
@@ -21,18 +19,12 @@ public class PattyFamFeatureScanner extends FeatureScanner {
     }
 
     @Override
-    protected Set<String> getFeatureTags(Feature feat) {
-        Set<String> retVal;
-        if (! feat.getType().equals("CDS"))
-            retVal = EMPTY_TAG_SET;
-        else {
+    protected void scanFeature(Feature feat, ITagSink sink) {
+        if (feat.getType().equals("CDS")) {
             String pgfam = feat.getPgfam();
-            if (StringUtils.isBlank(pgfam))
-                retVal = EMPTY_TAG_SET;
-            else
-                retVal = Set.of(pgfam);
+            if (! StringUtils.isBlank(pgfam))
+                sink.accept(pgfam);
         }
-        return retVal;
     }
 
     @Override
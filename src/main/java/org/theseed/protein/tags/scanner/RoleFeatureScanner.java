@@ -6,8 +6,6 @@ package org.theseed.protein.tags.scanner;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.theseed.basic.ParseFailureException;
 import org.theseed.genome.Feature;
@@ -40,26 +38,13 @@ public class RoleFeatureScanner extends FeatureScanner {
     }
 
     @Override
-    protected Set<String> getFeatureTags(Feature feat) {
+    protected void scanFeature(Feature feat, ITagSink sink) {
         // Only proceed for proteins.
-        Set<String> retVal;
-        if (! feat.getType().equals("CDS")) {
-            retVal = EMPTY_TAG_SET;
-        } else {
+        if (feat.getType().equals("CDS")) {
             List<Role> roles = feat.getUsefulRoles(this.roleMap);
-            // Generally, there is only zero or one, so we optimize those cases.
-            switch (roles.size()) {
-            case 0:
-                retVal = EMPTY_TAG_SET;
-                break;
-            case 1:
-                retVal = Set.of(roles.get(0).getId());
-                break;
-            default :
-                retVal = roles.stream().map(x -> x.getId()).collect(Collectors.toSet());
-            }
+            for (Role role : roles)
+                sink.accept(role.getId());
         }
-        return retVal;
     }
 
     @Override
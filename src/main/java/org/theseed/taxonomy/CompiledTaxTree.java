@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is an immutable, compiled form of a taxonomic tree (see TaxTree).  Each taxonomic grouping is assigned a
+ * dense node index in breadth-first order from the root, so the children of a node occupy a contiguous range of
+ * indices.  The node data is kept in primitive arrays:  the parent index, the depth, the first child and child
+ * count, and the preorder (Euler-tour) interval of the node's subtree.
+ *
+ * This allows parent, children, and is-ancestor queries to be answered in constant time with no boxing.  The
+ * lowest common ancestor is found by climbing the parent links, which takes at most one step per taxonomic rank.
+ *
+ * The tree has a synthetic root node (TaxTree.ROOT_GROUP) whose children are the groupings that have no parent.
+ * As with TaxTree, the root is not reported as a parent.  The object is read-only and thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CompiledTaxTree {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(CompiledTaxTree.class);
+    /** taxonomic ID for each node index */
+    private int[] taxIds;
+    /** parent index for each node index (-1 for the root) */
+    private int[] parents;
+    /** depth of each node (0 for the root) */
+    private int[] depths;
+    /** index of the first child of each node */
+    private int[] firstChild;
+    /** number of children of each node */
+    private int[] childCounts;
+    /** preorder position of each node */
+    private int[] enter;
+    /** preorder position of the last node in each node's subtree */
+    private int[] exit;
+    /** hash table of taxonomic IDs (open addressing) */
+    private int[] hashKeys;
+    /** node indices corresponding to the hash table keys */
+    private int[] hashValues;
+    /** mask for computing hash table positions */
+    private int hashMask;
+    /** empty-slot marker for the hash table */
+    private static final int EMPTY = Integer.MIN_VALUE;
+    /** empty child array */
+    private static final int[] NO_CHILDREN = new int[0];
+
+    /**
+     * Compile a taxonomic tree from its child-to-parent links.
+     *
+     * @param linkMap	map of child taxonomic IDs to parent taxonomic IDs
+     */
+    protected CompiledTaxTree(Map<Integer, Integer> linkMap) {
+        // Build the child lists.  Any parent that is not itself a child goes under the root.
+        Map<Integer, List<Integer>> childLists = new HashMap<Integer, List<Integer>>(linkMap.size());
+        Set<Integer> topLevel = new HashSet<Integer>();
+        for (var linkEntry : linkMap.entrySet()) {
+            int parentId = linkEntry.getValue();
+            childLists.computeIfAbsent(parentId, x -> new ArrayList<Integer>()).add(linkEntry.getKey());
+            if (parentId != TaxTree.ROOT_GROUP && ! linkMap.containsKey(parentId))
+                topLevel.add(parentId);
+        }
+        childLists.computeIfAbsent(TaxTree.ROOT_GROUP, x -> new ArrayList<Integer>()).addAll(topLevel);
+        // Allocate the node arrays.  There is one node for each child, one for each top-level parent, and the root.
+        final int capacity = linkMap.size() + topLevel.size() + 1;
+        this.taxIds = new int[capacity];
+        this.parents = new int[capacity];
+        this.depths = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.childCounts = new int[capacity];
+        // Number the nodes breadth-first.  Sorting the children makes the numbering deterministic.
+        this.taxIds[0] = TaxTree.ROOT_GROUP;
+        this.parents[0] = -1;
+        int next = 1;
+        for (int i = 0; i < next; i++) {
+            List<Integer> children = childLists.get(this.taxIds[i]);
+            this.firstChild[i] = next;
+            if (children != null) {
+                children.sort(null);
+                for (int childId : children) {
+                    this.taxIds[next] = childId;
+                    this.parents[next] = i;
+                    this.depths[next] = this.depths[i] + 1;
+                    next++;
+                }
+                this.childCounts[i] = children.size();
+            }
+        }
+        // Nodes in a parent cycle are never reached from the root.
+        if (next < capacity) {
+            log.warn("{} taxonomic groupings are not connected to the root and will be ignored.", capacity - next);
+            this.taxIds = Arrays.copyOf(this.taxIds, next);
+            this.parents = Arrays.copyOf(this.parents, next);
+            this.depths = Arrays.copyOf(this.depths, next);
+            this.firstChild = Arrays.copyOf(this.firstChild, next);
+            this.childCounts = Arrays.copyOf(this.childCounts, next);
+        }
+        final int n = next;
+        // Compute the subtree sizes bottom-up, then the preorder intervals top-down.
+        int[] sizes = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            sizes[i]++;
+            if (i > 0)
+                sizes[this.parents[i]] += sizes[i];
+        }
+        this.enter = new int[n];
+        this.exit = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.exit[i] = this.enter[i] + sizes[i] - 1;
+            int pos = this.enter[i] + 1;
+            final int end = this.firstChild[i] + this.childCounts[i];
+            for (int c = this.firstChild[i]; c < end; c++) {
+                this.enter[c] = pos;
+                pos += sizes[c];
+            }
+        }
+        // Build the taxonomic ID hash.  The table is kept at most half full.
+        int tableSize = Integer.highestOneBit(n * 2 - 1) << 1;
+        this.hashMask = tableSize - 1;
+        this.hashKeys = new int[tableSize];
+        this.hashValues = new int[tableSize];
+        Arrays.fill(this.hashKeys, EMPTY);
+        for (int i = 0; i < n; i++) {
+            int h = hash(this.taxIds[i]) & this.hashMask;
+            while (this.hashKeys[h] != EMPTY)
+                h = (h + 1) & this.hashMask;
+            this.hashKeys[h] = this.taxIds[i];
+            this.hashValues[h] = i;
+        }
+        log.info("Compiled taxonomic tree with {} nodes.", n);
+    }
+
+    /**
+     * @return a scrambled hash code for a taxonomic ID
+     *
+     * @param taxId		taxonomic ID to hash
+     */
+    private static int hash(int taxId) {
+        int retVal = taxId * 0x9E3779B9;
+        return retVal ^ (retVal >>> 16);
+    }
+
+    /**
+     * @return the node index for a taxonomic ID, or -1 if the ID is not in the tree
+     *
+     * @param taxId		taxonomic ID of interest
+     */
+    private int indexOf(int taxId) {
+        int retVal = -1;
+        int h = hash(taxId) & this.hashMask;
+        while (retVal < 0 && this.hashKeys[h] != EMPTY) {
+            if (this.hashKeys[h] == taxId)
+                retVal = this.hashValues[h];
+            else
+                h = (h + 1) & this.hashMask;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of nodes in the tree, including the root
+     */
+    public int size() {
+        return this.taxIds.length;
+    }
+
+    /**
+     * @return an array of the IDs of all the taxonomic groups in the tree, including the root, in breadth-first order
+     */
+    public int[] getTaxIds() {
+        return Arrays.copyOf(this.taxIds, this.taxIds.length);
+    }
+
+    /**
+     * @return TRUE if the specified taxonomic grouping is in the tree
+     *
+     * @param taxId		taxonomic ID of interest
+     */
+    public boolean contains(int taxId) {
+        return this.indexOf(taxId) >= 0;
+    }
+
+    /**
+     * @return the taxonomic ID of the parent group for a specified group, or -1 if there is no parent
+     *
+     * @param taxId		ID of taxonomic group whose parent is desired
+     */
+    public int getParent(int taxId) {
+        int retVal = -1;
+        int idx = this.indexOf(taxId);
+        if (idx > 0) {
+            int parentIdx = this.parents[idx];
+            if (parentIdx > 0)
+                retVal = this.taxIds[parentIdx];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of children of a taxonomic group (0 if the group is not in the tree)
+     *
+     * @param taxId		ID of taxonomic group of interest
+     */
+    public int getChildCount(int taxId) {
+        int idx = this.indexOf(taxId);
+        return (idx < 0 ? 0 : this.childCounts[idx]);
+    }
+
+    /**
+     * @return an array of the IDs of the children of a taxonomic group, in ID order
+     *
+     * @param taxId		ID of taxonomic group of interest
+     */
+    public int[] getChildren(int taxId) {
+        int[] retVal = NO_CHILDREN;
+        int idx = this.indexOf(taxId);
+        if (idx >= 0 && this.childCounts[idx] > 0) {
+            final int first = this.firstChild[idx];
+            retVal = Arrays.copyOfRange(this.taxIds, first, first + this.childCounts[idx]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the depth of a taxonomic group (0 for the root), or -1 if the group is not in the tree
+     *
+     * @param taxId		ID of taxonomic group of interest
+     */
+    public int getDepth(int taxId) {
+        int idx = this.indexOf(taxId);
+        return (idx < 0 ? -1 : this.depths[idx]);
+    }
+
+    /**
+     * @return TRUE if the first taxonomic group is the same as or an ancestor of the second
+     *
+     * @param ancestorId	ID of the possible ancestor group
+     * @param taxId			ID of the possible descendant group
+     */
+    public boolean isAncestor(int ancestorId, int taxId) {
+        boolean retVal = false;
+        int a = this.indexOf(ancestorId);
+        if (a >= 0) {
+            int d = this.indexOf(taxId);
+            retVal = (d >= 0 && this.enter[a] <= this.enter[d] && this.enter[d] <= this.exit[a]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID of the smallest taxonomic group containing both of the specified groups, or -1 if either
+     * 		   group is not in the tree
+     *
+     * @param taxId1	ID of the first taxonomic group
+     * @param taxId2	ID of the second taxonomic group
+     */
+    public int getCommonAncestor(int taxId1, int taxId2) {
+        int retVal = -1;
+        int a = this.indexOf(taxId1);
+        int b = this.indexOf(taxId2);
+        if (a >= 0 && b >= 0) {
+            // Climb from the deeper node until the nodes are at the same depth, then climb both until they meet.
+            while (this.depths[a] > this.depths[b]) a = this.parents[a];
+            while (this.depths[b] > this.depths[a]) b = this.parents[b];
+            while (a != b) {
+                a = this.parents[a];
+                b = this.parents[b];
+            }
+            retVal = this.taxIds[a];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the tree as a map from each parent ID to its set of child IDs, with the top-level groups under the root
+     * 		   (the map is built on each call, so clients that only walk the tree should use the query methods instead)
+     */
+    public Map<Integer, Set<Integer>> getTree() {
+        Map<Integer, Set<Integer>> retVal = new HashMap<Integer, Set<Integer>>(this.taxIds.length * 2);
+        for (int i = 0; i < this.taxIds.length; i++) {
+            final int count = this.childCounts[i];
+            if (count > 0 || i == 0) {
+                Set<Integer> children = new HashSet<Integer>(count * 4 / 3 + 1);
+                final int first = this.firstChild[i];
+                for (int c = first; c < first + count; c++)
+                    children.add(this.taxIds[c]);
+                retVal.put(this.taxIds[i], children);
+            }
+        }
+        return retVal;
+    }
+
+}
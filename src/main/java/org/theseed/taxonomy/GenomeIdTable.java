@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This object maps genome ID strings to dense integer indices, so that genome memberships can be stored as
+ * arrays of integers.  Each genome ID is stored only once, no matter how many taxonomic groupings it belongs to,
+ * and a single table is generally shared by all the rank maps for a taxonomy.
+ *
+ * New genome IDs are added under a lock.  Index-to-string lookups do not lock, but are safe from any thread
+ * once the index has been returned by the table.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeIdTable {
+
+    // FIELDS
+    /** map of genome IDs to indices */
+    private Map<String, Integer> idMap;
+    /** array of genome IDs by index */
+    private volatile String[] genomes;
+    /** number of genome IDs in the table */
+    private volatile int size;
+
+    /**
+     * Create a new, empty genome ID table.
+     */
+    public GenomeIdTable() {
+        this.idMap = new HashMap<String, Integer>();
+        this.genomes = new String[1000];
+        this.size = 0;
+    }
+
+    /**
+     * @return the index for a genome ID, adding it to the table if it is new
+     *
+     * @param genomeId	genome ID of interest
+     */
+    public synchronized int getIndex(String genomeId) {
+        Integer retVal = this.idMap.get(genomeId);
+        if (retVal == null) {
+            int n = this.size;
+            String[] array = this.genomes;
+            if (n >= array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+                this.genomes = array;
+            }
+            array[n] = genomeId;
+            retVal = n;
+            this.idMap.put(genomeId, retVal);
+            // Updating the size publishes the new entry to unlocked readers.
+            this.size = n + 1;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the index for a genome ID, or -1 if the genome ID is not in the table
+     *
+     * @param genomeId	genome ID of interest
+     */
+    public synchronized int findIndex(String genomeId) {
+        Integer retVal = this.idMap.get(genomeId);
+        return (retVal == null ? -1 : retVal);
+    }
+
+    /**
+     * @return the genome ID for an index
+     *
+     * @param idx	index of the genome ID
+     */
+    public String getGenome(int idx) {
+        // Read the size first so that we see every entry it covers.
+        if (idx >= this.size)
+            throw new IndexOutOfBoundsException("Genome index " + idx + " is not in the table.");
+        return this.genomes[idx];
+    }
+
+    /**
+     * @return the number of genome IDs in the table
+     */
+    public int size() {
+        return this.size;
+    }
+
+}
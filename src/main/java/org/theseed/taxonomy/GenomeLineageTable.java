@@ -0,0 +1,291 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object manages the genome lineage table of a taxonomic list directory.  For each genome added to the
+ * directory, the table contains the genome name and the taxonomic lineage as an array of taxonomic IDs, from
+ * the largest grouping to the smallest.  This allows per-genome reporting without reloading the genomes.
+ *
+ * The file begins with a header containing a magic number, a version number, and the file position of the
+ * index.  This is followed by the data area, which contains one record per genome:  the lineage length, the
+ * lineage IDs as 4-byte integers, and the genome name in modified UTF-8.  The index comes last.  It contains a
+ * genome count followed by the genome ID, data position, and record length of each genome.  Only the index is
+ * read when the table is opened; each genome's record is fetched with a single positional read.
+ *
+ * Once opened, the table is read-only and thread-safe.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenomeLineageTable implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(GenomeLineageTable.class);
+    /** name of the table file */
+    private File fileName;
+    /** file channel for the table, or NULL if the table is empty */
+    private FileChannel channel;
+    /** map of genome IDs to index entries */
+    private Map<String, Entry> index;
+    /** name of the table file in the taxonomic list directory */
+    public static final String TABLE_FILE_NAME = "genomes.lineage";
+    /** magic number identifying a genome lineage table */
+    private static final int MAGIC = 0x474C494E;
+    /** current file format version */
+    private static final int VERSION = 1;
+    /** length of the file header */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * This object describes the location of a genome's record in the data area.
+     */
+    private static class Entry {
+
+        /** position of the record in the file */
+        private long position;
+        /** length of the record in bytes */
+        private int length;
+
+        /**
+         * Construct an index entry.
+         *
+         * @param position	file position of the record
+         * @param length	length of the record in bytes
+         */
+        protected Entry(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * This object contains the name and lineage of a genome.
+     */
+    public static class GenomeData {
+
+        /** genome name */
+        private String name;
+        /** taxonomic lineage, from largest grouping to smallest */
+        private int[] lineage;
+
+        /**
+         * Construct a genome data object.
+         *
+         * @param name		genome name (may be NULL if unknown)
+         * @param lineage	taxonomic lineage, from largest grouping to smallest
+         */
+        public GenomeData(String name, int[] lineage) {
+            this.name = (name == null ? "" : name);
+            this.lineage = lineage;
+        }
+
+        /**
+         * @return the genome name, or an empty string if it is unknown
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the taxonomic lineage, from largest grouping to smallest
+         */
+        public int[] getLineage() {
+            return this.lineage;
+        }
+
+    }
+
+    /**
+     * Write a genome lineage table.  The table is written under a temporary name and then moved into place,
+     * so an interrupted save never leaves behind a partial table.
+     *
+     * @param outFile	name of the output file
+     * @param genomes	map of genome IDs to genome data
+     *
+     * @throws IOException
+     */
+    public static void save(File outFile, Map<String, GenomeData> genomes) throws IOException {
+        File tempFile = new File(outFile.getParentFile(), outFile.getName() + ".tmp");
+        Map<String, Entry> index = new HashMap<String, Entry>(genomes.size() * 4 / 3 + 1);
+        long indexPosition;
+        try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            // Write the header.  The index position will be filled in at the end.
+            outStream.writeInt(MAGIC);
+            outStream.writeInt(VERSION);
+            outStream.writeLong(0L);
+            long position = HEADER_SIZE;
+            // Write the genome records.  Each record is formatted in a buffer so we know its length.
+            ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(200);
+            DataOutputStream recordStream = new DataOutputStream(recordBuffer);
+            for (var genomeEntry : genomes.entrySet()) {
+                GenomeData data = genomeEntry.getValue();
+                recordBuffer.reset();
+                recordStream.writeInt(data.lineage.length);
+                for (int taxId : data.lineage)
+                    recordStream.writeInt(taxId);
+                recordStream.writeUTF(data.name);
+                recordBuffer.writeTo(outStream);
+                index.put(genomeEntry.getKey(), new Entry(position, recordBuffer.size()));
+                position += recordBuffer.size();
+            }
+            // Write the index.
+            indexPosition = position;
+            outStream.writeInt(index.size());
+            for (var indexEntry : index.entrySet()) {
+                Entry entry = indexEntry.getValue();
+                outStream.writeUTF(indexEntry.getKey());
+                outStream.writeLong(entry.position);
+                outStream.writeInt(entry.length);
+            }
+        }
+        // Fill in the index position in the header.
+        try (RandomAccessFile patcher = new RandomAccessFile(tempFile, "rw")) {
+            patcher.seek(8);
+            patcher.writeLong(indexPosition);
+        }
+        Files.move(tempFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        log.info("{} genome lineages written to {}.", index.size(), outFile);
+    }
+
+    /**
+     * Open a genome lineage table.  If the file does not exist, the table will be empty.
+     *
+     * @param tableFile		name of the table file
+     *
+     * @throws IOException
+     */
+    public GenomeLineageTable(File tableFile) throws IOException {
+        this.fileName = tableFile;
+        this.index = new HashMap<String, Entry>();
+        if (! tableFile.exists())
+            this.channel = null;
+        else {
+            this.channel = FileChannel.open(tableFile.toPath());
+            try {
+                // Read the header.  Note we do not close the input stream, because that would close the channel.
+                DataInputStream inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+                if (inStream.readInt() != MAGIC)
+                    throw new IOException(tableFile + " is not a genome lineage table.");
+                int version = inStream.readInt();
+                if (version != VERSION)
+                    throw new IOException(tableFile + " has unsupported genome lineage table version " + version + ".");
+                final long indexPosition = inStream.readLong();
+                if (indexPosition < HEADER_SIZE)
+                    throw new IOException(tableFile + " is incomplete.");
+                // Read the index.
+                this.channel.position(indexPosition);
+                inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+                final int nGenomes = inStream.readInt();
+                this.index = new HashMap<String, Entry>(nGenomes * 4 / 3 + 1);
+                for (int i = 0; i < nGenomes; i++) {
+                    String genomeId = inStream.readUTF();
+                    long position = inStream.readLong();
+                    int length = inStream.readInt();
+                    this.index.put(genomeId, new Entry(position, length));
+                }
+                log.info("{} genomes found in lineage table {}.", nGenomes, tableFile);
+            } catch (IOException e) {
+                this.channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return the name and lineage of a genome, or NULL if the genome is not in the table
+     *
+     * @param genomeId	ID of the genome of interest
+     *
+     * @throws IOException
+     */
+    public GenomeData get(String genomeId) throws IOException {
+        GenomeData retVal = null;
+        Entry entry = this.index.get(genomeId);
+        if (entry != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            long pos = entry.position;
+            while (buffer.hasRemaining()) {
+                int n = this.channel.read(buffer, pos);
+                if (n < 0)
+                    throw new IOException("Unexpected end of file in lineage table " + this.fileName + ".");
+                pos += n;
+            }
+            DataInputStream inStream = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+            int[] lineage = new int[inStream.readInt()];
+            for (int i = 0; i < lineage.length; i++)
+                lineage[i] = inStream.readInt();
+            retVal = new GenomeData(inStream.readUTF(), lineage);
+        }
+        return retVal;
+    }
+
+    /**
+     * Read the whole table into memory.
+     *
+     * @return a map of genome IDs to genome data
+     *
+     * @throws IOException
+     */
+    public Map<String, GenomeData> getAll() throws IOException {
+        Map<String, GenomeData> retVal = new HashMap<String, GenomeData>(this.index.size() * 4 / 3 + 1);
+        for (String genomeId : this.index.keySet())
+            retVal.put(genomeId, this.get(genomeId));
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified genome is in the table
+     *
+     * @param genomeId	ID of the genome of interest
+     */
+    public boolean contains(String genomeId) {
+        return this.index.containsKey(genomeId);
+    }
+
+    /**
+     * @return the set of genome IDs in the table
+     */
+    public Set<String> getGenomeIds() {
+        return this.index.keySet();
+    }
+
+    /**
+     * @return the number of genomes in the table
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null)
+            this.channel.close();
+    }
+
+}
@@ -0,0 +1,281 @@
+/**
+ *
+ */
+package org.theseed.taxonomy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This object is an offset index for a rank-map save file (see RankMap).  The file is scanned once, and for each
+ * taxonomic grouping the index records the grouping name and the location of the genome list in the file.  The genome
+ * lists are not parsed during the scan, so building the index is much cheaper than loading the rank map, and a single
+ * grouping's genomes can be fetched later with one positional read.
+ *
+ * The index is read-only once built, and is thread-safe.  It is only valid as long as the rank file is unchanged.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RankIndex {
+
+    // FIELDS
+    /** name of the rank file */
+    private File fileName;
+    /** map of taxonomic IDs to index entries */
+    private Map<Integer, Entry> index;
+    /** size of the scan buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * This object describes a taxonomic grouping in the rank file.
+     */
+    private static class Entry {
+
+        /** name of the grouping */
+        private String name;
+        /** file position of the genome list */
+        private long position;
+        /** length of the genome list in bytes */
+        private int length;
+
+        /**
+         * Construct an index entry.
+         *
+         * @param name		name of the grouping
+         * @param position	file position of the genome list
+         * @param length	length of the genome list in bytes
+         */
+        protected Entry(String name, long position, int length) {
+            this.name = name;
+            this.position = position;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * This object scans the lines of a rank file a buffer at a time, keeping track of the file position.
+     */
+    private static class Scanner {
+
+        /** input stream */
+        private InputStream inStream;
+        /** scan buffer */
+        private byte[] buffer;
+        /** number of valid bytes in the buffer */
+        private int limit;
+        /** position of the next byte in the buffer */
+        private int pos;
+        /** file position of the start of the buffer */
+        private long bufferStart;
+
+        /**
+         * Create a scanner for an input stream.
+         *
+         * @param inStream	input stream to scan
+         */
+        protected Scanner(InputStream inStream) {
+            this.inStream = inStream;
+            this.buffer = new byte[BUFFER_SIZE];
+            this.limit = 0;
+            this.pos = 0;
+            this.bufferStart = 0;
+        }
+
+        /**
+         * @return the next byte in the file, or -1 at end-of-file
+         *
+         * @throws IOException
+         */
+        protected int next() throws IOException {
+            if (this.pos >= this.limit) {
+                this.bufferStart += this.limit;
+                this.limit = this.inStream.read(this.buffer);
+                this.pos = 0;
+                if (this.limit <= 0) {
+                    this.limit = 0;
+                    return -1;
+                }
+            }
+            return this.buffer[this.pos++] & 0xFF;
+        }
+
+        /**
+         * @return the file position of the next byte
+         */
+        protected long position() {
+            return this.bufferStart + this.pos;
+        }
+
+    }
+
+    /**
+     * Build the index for a rank file.
+     *
+     * @param rankFile	name of the rank file to index
+     *
+     * @throws IOException
+     */
+    public RankIndex(File rankFile) throws IOException {
+        this.fileName = rankFile;
+        this.index = new HashMap<Integer, Entry>();
+        try (InputStream inStream = new FileInputStream(rankFile)) {
+            Scanner scanner = new Scanner(inStream);
+            // Skip the header line.
+            int c = scanner.next();
+            while (c >= 0 && c != '\n') c = scanner.next();
+            // Loop through the data lines.
+            StringBuilder field = new StringBuilder(20);
+            ByteArrayOutputStream nameBytes = new ByteArrayOutputStream(80);
+            c = scanner.next();
+            while (c >= 0) {
+                // Get the taxonomic ID.
+                field.setLength(0);
+                while (c >= 0 && c != '\t' && c != '\n') {
+                    field.append((char) c);
+                    c = scanner.next();
+                }
+                // Get the name.
+                nameBytes.reset();
+                if (c == '\t') {
+                    c = scanner.next();
+                    while (c >= 0 && c != '\t' && c != '\n') {
+                        nameBytes.write(c);
+                        c = scanner.next();
+                    }
+                }
+                // Find the genome list.
+                long start = scanner.position();
+                long end = start;
+                if (c == '\t') {
+                    c = scanner.next();
+                    while (c >= 0 && c != '\n') {
+                        if (c != '\r')
+                            end = scanner.position();
+                        c = scanner.next();
+                    }
+                }
+                String taxString = StringUtils.strip(field.toString());
+                if (! taxString.isEmpty()) {
+                    int taxId;
+                    try {
+                        taxId = Integer.parseInt(taxString);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid taxonomic ID \"" + taxString + "\" in rank file " + rankFile + ".");
+                    }
+                    String name = StringUtils.chomp(nameBytes.toString(StandardCharsets.UTF_8));
+                    this.index.put(taxId, new Entry(name, start, (int) (end - start)));
+                }
+                // Move to the next line.
+                if (c == '\n')
+                    c = scanner.next();
+            }
+        }
+    }
+
+    /**
+     * @return the name of a taxonomic grouping, or NULL if the grouping is not in this index
+     *
+     * @param taxId		ID of the grouping of interest
+     */
+    public String getName(int taxId) {
+        Entry entry = this.index.get(taxId);
+        return (entry == null ? null : entry.name);
+    }
+
+    /**
+     * @return TRUE if the specified taxonomic grouping is in this index
+     *
+     * @param taxId		ID of the grouping of interest
+     */
+    public boolean contains(int taxId) {
+        return this.index.containsKey(taxId);
+    }
+
+    /**
+     * @return the genome set for a taxonomic grouping, or NULL if the grouping is not in this index
+     *
+     * @param taxId		ID of the grouping of interest
+     *
+     * @throws IOException
+     */
+    public Set<String> getGenomes(int taxId) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.fileName.toPath())) {
+            return this.readGenomes(channel, taxId);
+        }
+    }
+
+    /**
+     * Read the genome sets for multiple taxonomic groupings.  The file is only opened once.
+     *
+     * @param taxIds	IDs of the groupings of interest
+     * @param outMap	map into which the genome sets should be stored, keyed by taxonomic ID
+     *
+     * @return the IDs of the groupings that were not found in this index
+     *
+     * @throws IOException
+     */
+    public Set<Integer> getGenomes(Collection<Integer> taxIds, Map<Integer, Set<String>> outMap) throws IOException {
+        Set<Integer> retVal = new HashSet<Integer>();
+        try (FileChannel channel = FileChannel.open(this.fileName.toPath())) {
+            for (int taxId : taxIds) {
+                Set<String> genomes = this.readGenomes(channel, taxId);
+                if (genomes == null)
+                    retVal.add(taxId);
+                else
+                    outMap.put(taxId, genomes);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the genome set for a taxonomic grouping, or NULL if the grouping is not in this index
+     *
+     * @param channel	open file channel for the rank file
+     * @param taxId		ID of the grouping of interest
+     *
+     * @throws IOException
+     */
+    private Set<String> readGenomes(FileChannel channel, int taxId) throws IOException {
+        Set<String> retVal = null;
+        Entry entry = this.index.get(taxId);
+        if (entry != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            long pos = entry.position;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, pos);
+                if (n < 0)
+                    throw new IOException("Unexpected end of file in rank file " + this.fileName + ".");
+                pos += n;
+            }
+            String[] genomes = StringUtils.split(new String(buffer.array(), StandardCharsets.US_ASCII), ',');
+            retVal = new HashSet<String>(genomes.length * 4 / 3 + 1);
+            for (String genome : genomes)
+                retVal.add(genome);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of taxonomic groupings in this index
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+}
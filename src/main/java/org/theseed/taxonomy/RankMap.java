@@ -6,10 +6,15 @@ package org.theseed.taxonomy;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.genome.TaxItem;
@@ -20,6 +25,12 @@ import org.theseed.io.TabbedLineReader;
  * taxonomic grouping, it contains the ID number, the name, and the list of IDs for the
  * genomes in the group.
  *
+ * The genome lists are stored in compressed sparse row form:  each genome ID is mapped to an integer by a
+ * genome ID table (usually shared by all the rank maps for a taxonomy), and the genome indices for all the
+ * groupings loaded from a file are kept in a single integer array, with each grouping owning a slice of it
+ * sorted in genome ID order.  A grouping that has genomes added after loading is moved to an array of its own.
+ * The genome sets returned to the client are read-only views of the slices.
+ *
  * @author Bruce Parrello
  *
  */
@@ -28,6 +39,8 @@ public class RankMap {
     // FIELDS
     /** map of taxonomic IDs to descriptors */
     private Map<Integer, Taxon> taxMap;
+    /** genome ID table for the genome memberships */
+    private GenomeIdTable genomeTable;
 
     /**
      * This object contains the data for a specific taxonomic grouping.
@@ -38,19 +51,100 @@ public class RankMap {
         private int id;
         /** taxonomic group name */
         private String name;
-        /** set of genome IDs */
-        private Set<String> genomes;
+        /** genome ID table for the genome indices */
+        private GenomeIdTable genomeTable;
+        /** array containing the genome indices */
+        private int[] members;
+        /** position of the first genome index in the array */
+        private int start;
+        /** number of genome indices in the group */
+        private int length;
+        /** TRUE if the member array belongs to this grouping alone */
+        private boolean owned;
+        /** TRUE if the genome indices are sorted in genome ID order with no duplicates */
+        private boolean sorted;
+        /** read-only view of the genome set */
+        private Set<String> genomeView;
+
+        /**
+         * Construct an empty taxon descriptor for a specific taxonomic ID.
+         *
+         * @param taxId			taxonomic group ID
+         * @param taxName		taxonomic group name
+         * @param genomeTable	genome ID table for the genome indices
+         */
+        protected Taxon(int taxId, String taxName, GenomeIdTable genomeTable) {
+            this(taxId, taxName, genomeTable, new int[4], 0, 0);
+            this.owned = true;
+        }
 
         /**
-         * Construct a taxon descriptor for a specific taxonomic ID.
+         * Construct a taxon descriptor whose genomes are a sorted slice of a shared member array.
          *
-         * @param taxId		taxonomic group ID
-         * @param taxName	taxonomic group name
+         * @param taxId			taxonomic group ID
+         * @param taxName		taxonomic group name
+         * @param genomeTable	genome ID table for the genome indices
+         * @param members		array containing the genome indices
+         * @param start			position of the first genome index in the array
+         * @param length		number of genome indices in the group
          */
-        protected Taxon(int taxId, String taxName) {
+        protected Taxon(int taxId, String taxName, GenomeIdTable genomeTable, int[] members, int start, int length) {
             this.id = taxId;
             this.name = taxName;
-            this.genomes = new TreeSet<String>();
+            this.genomeTable = genomeTable;
+            this.members = members;
+            this.start = start;
+            this.length = length;
+            this.owned = false;
+            this.sorted = true;
+            this.genomeView = new GenomeView();
+        }
+
+        /**
+         * This is a read-only view of the genome set for a grouping.  It iterates in genome ID order.
+         */
+        private class GenomeView extends AbstractSet<String> {
+
+            @Override
+            public Iterator<String> iterator() {
+                Taxon.this.compact();
+                final int[] array = Taxon.this.members;
+                final int end = Taxon.this.start + Taxon.this.length;
+                return new Iterator<String>() {
+
+                    private int pos = Taxon.this.start;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.pos < end;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (this.pos >= end)
+                            throw new NoSuchElementException();
+                        return Taxon.this.genomeTable.getGenome(array[this.pos++]);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                Taxon.this.compact();
+                return Taxon.this.length;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                boolean retVal = false;
+                if (o instanceof String) {
+                    Taxon.this.compact();
+                    retVal = (Taxon.this.find((String) o) >= 0);
+                }
+                return retVal;
+            }
+
         }
 
         /**
@@ -58,8 +152,65 @@ public class RankMap {
          *
          * @param genomeId	ID of the genome to add
          */
-        public void add(String genomeId) {
-            this.genomes.add(genomeId);
+        public synchronized void add(String genomeId) {
+            // Insure we have our own array with room for the new genome.
+            if (! this.owned || this.length >= this.members.length) {
+                int[] newMembers = new int[Math.max(4, this.length * 2)];
+                System.arraycopy(this.members, this.start, newMembers, 0, this.length);
+                this.members = newMembers;
+                this.start = 0;
+                this.owned = true;
+            }
+            // Genomes usually arrive in order, so we only need to sort if this one is out of order.
+            if (this.sorted && this.length > 0) {
+                int comp = genomeId.compareTo(this.genomeTable.getGenome(this.members[this.length - 1]));
+                if (comp == 0)
+                    return;
+                if (comp < 0)
+                    this.sorted = false;
+            }
+            this.members[this.length] = this.genomeTable.getIndex(genomeId);
+            this.length++;
+        }
+
+        /**
+         * Sort the genome indices into genome ID order and remove duplicates, if necessary.
+         */
+        private synchronized void compact() {
+            if (! this.sorted) {
+                String[] genomes = new String[this.length];
+                for (int i = 0; i < this.length; i++)
+                    genomes[i] = this.genomeTable.getGenome(this.members[this.start + i]);
+                Arrays.sort(genomes);
+                int n = 0;
+                for (int i = 0; i < genomes.length; i++) {
+                    if (n == 0 || ! genomes[i].equals(genomes[i-1]))
+                        this.members[this.start + n++] = this.genomeTable.findIndex(genomes[i]);
+                }
+                this.length = n;
+                this.sorted = true;
+            }
+        }
+
+        /**
+         * @return the position of a genome in the member array, or -1 if it is not in this grouping
+         *
+         * @param genomeId	ID of the genome to find
+         */
+        private synchronized int find(String genomeId) {
+            int lo = this.start;
+            int hi = this.start + this.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int comp = this.genomeTable.getGenome(this.members[mid]).compareTo(genomeId);
+                if (comp < 0)
+                    lo = mid + 1;
+                else if (comp > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
         }
 
         /**
@@ -77,42 +228,84 @@ public class RankMap {
         }
 
         /**
-         * @return the set of genomes in the group
+         * @return a read-only view of the set of genomes in the group
          */
         public Set<String> getGenomes() {
-            return this.genomes;
+            return this.genomeView;
         }
 
     }
 
     /**
-     * Construct a new, blank rank map.
+     * Construct a new, blank rank map with its own genome ID table.
      */
     public RankMap() {
+        this(new GenomeIdTable());
+    }
+
+    /**
+     * Construct a new, blank rank map.
+     *
+     * @param genomeTable	genome ID table to use for the genome memberships
+     */
+    public RankMap(GenomeIdTable genomeTable) {
         this.taxMap = new TreeMap<Integer, Taxon>();
+        this.genomeTable = genomeTable;
     }
 
     /**
-     * Construct a rank map from a rank-map save file.
+     * Construct a rank map with its own genome ID table from a rank-map save file.
      *
      * @param fileName	name of the file containing the saved rank map
      *
      * @throws IOException
      */
     public RankMap(File fileName) throws IOException {
-        // Create the empty taxId map.
-        this.taxMap = new TreeMap<Integer, Taxon>();
-        // Loop through the input file, creating taxonomic groupings.
+        this(fileName, new GenomeIdTable());
+    }
+
+    /**
+     * Construct a rank map from a rank-map save file.
+     *
+     * @param fileName		name of the file containing the saved rank map
+     * @param genomeTable	genome ID table to use for the genome memberships
+     *
+     * @throws IOException
+     */
+    public RankMap(File fileName, GenomeIdTable genomeTable) throws IOException {
+        this(genomeTable);
+        // The member array is filled as we go.  Each grouping's slice is recorded here until the array is complete.
+        int[] members = new int[1024];
+        int used = 0;
+        List<int[]> slices = new ArrayList<int[]>();
+        List<String> names = new ArrayList<String>();
+        // Loop through the input file, filling in the member array.
         try (TabbedLineReader inStream = new TabbedLineReader(fileName)) {
             for (var line : inStream) {
                 final int taxId = line.getInt(0);
-                Taxon lineTaxon = new Taxon(taxId, line.get(1));
                 String[] genomes = StringUtils.split(line.get(2), ',');
+                // The genomes are normally saved in order, but we can't be sure.
+                boolean ordered = true;
+                for (int i = 1; ordered && i < genomes.length; i++)
+                    ordered = (genomes[i-1].compareTo(genomes[i]) < 0);
+                if (! ordered)
+                    genomes = Arrays.stream(genomes).sorted().distinct().toArray(String[]::new);
+                if (used + genomes.length > members.length)
+                    members = Arrays.copyOf(members, Math.max(members.length * 2, used + genomes.length));
+                slices.add(new int[] { taxId, used, genomes.length });
+                names.add(line.get(1));
                 for (String genome : genomes)
-                    lineTaxon.add(genome);
-                this.taxMap.put(taxId, lineTaxon);
+                    members[used++] = genomeTable.getIndex(genome);
             }
         }
+        // Now create the groupings.
+        if (used < members.length)
+            members = Arrays.copyOf(members, used);
+        final int n = slices.size();
+        for (int i = 0; i < n; i++) {
+            int[] slice = slices.get(i);
+            this.taxMap.put(slice[0], new Taxon(slice[0], names.get(i), genomeTable, members, slice[1], slice[2]));
+        }
     }
 
     /**
@@ -163,10 +356,31 @@ public class RankMap {
     public void add(String genomeId, TaxItem rankData) {
         final int taxId = rankData.getId();
         final String name = rankData.getName();
-        Taxon taxon = this.taxMap.computeIfAbsent(taxId, x -> new Taxon(taxId, name));
+        Taxon taxon = this.taxMap.computeIfAbsent(taxId, x -> new Taxon(taxId, name, this.genomeTable));
         taxon.add(genomeId);
     }
 
+    /**
+     * Merge another rank map into this one.  Groupings new to this map take their names from the other map.
+     *
+     * @param other		rank map to merge in
+     */
+    public void merge(RankMap other) {
+        for (Taxon otherTaxon : other.taxMap.values()) {
+            final int taxId = otherTaxon.getId();
+            Taxon taxon = this.taxMap.computeIfAbsent(taxId, x -> new Taxon(taxId, otherTaxon.getName(), this.genomeTable));
+            for (String genomeId : otherTaxon.getGenomes())
+                taxon.add(genomeId);
+        }
+    }
+
+    /**
+     * @return the genome ID table for this rank map
+     */
+    public GenomeIdTable getGenomeTable() {
+        return this.genomeTable;
+    }
+
     /**
      * @return the number of taxonomic groups in the map
      */
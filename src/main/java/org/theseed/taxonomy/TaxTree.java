@@ -157,6 +157,16 @@ public class TaxTree {
         return retVal;
     }
 
+    /**
+     * @return an immutable compiled copy of this tree for fast queries
+     */
+    public CompiledTaxTree compile() {
+        Map<Integer, Integer> parentMap = new HashMap<Integer, Integer>(this.linkMap.size() * 4 / 3 + 1);
+        for (var linkEntry : this.linkMap.entrySet())
+            parentMap.put(linkEntry.getKey(), linkEntry.getValue().getParent());
+        return new CompiledTaxTree(parentMap);
+    }
+
     /**
      * @return TRUE if the tree is empty
      */
@@ -6,13 +6,23 @@ package org.theseed.taxonomy;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
@@ -30,6 +40,15 @@ import org.theseed.io.TabbedLineReader;
  * within that rank.  The first column is the grouping ID, the second column is the grouping name, and the
  * third column is the genome IDs, comma-delimited.
  *
+ * Rank maps are loaded at most once and shared between threads, so they must not be modified by the client.  For
+ * lookups that do not need a whole rank map, each rank file also has an offset index (see RankIndex) that is built
+ * on first use and allows a single grouping's name or genome list to be read without parsing the rest of the file.
+ * The directory also contains a genome lineage table (see GenomeLineageTable) with the name and lineage of each
+ * genome added, so that per-genome reports can be produced without reloading the genomes.
+ *
+ * The taxonomic tree is likewise compiled once (see CompiledTaxTree) and shared.  All of these are discarded when
+ * an updater saves new files.
+ *
  * @author Bruce Parrello
  *
  */
@@ -54,6 +73,16 @@ public class TaxonListDirectory {
     private static final RankMap EMPTY_RANK_MAP = new RankMap();
     /** rank index file name */
     private static final String RANK_INDEX_NAME = "rank.index";
+    /** initial size of a lineage buffer */
+    private static final int LINEAGE_BUFFER_SIZE = 40;
+    /** cache of loaded rank maps, keyed by rank level */
+    private final Map<Integer, RankMap> rankMapCache = new ConcurrentHashMap<Integer, RankMap>();
+    /** cache of rank-file offset indexes, keyed by rank level */
+    private final Map<Integer, RankIndex> rankOffsetCache = new ConcurrentHashMap<Integer, RankIndex>();
+    /** genome ID table shared by the cached rank maps */
+    private volatile GenomeIdTable genomeTable = new GenomeIdTable();
+    /** compiled taxonomic tree, or NULL if it has not been loaded */
+    private volatile CompiledTaxTree compiledTree;
 
     /**
      * Return the level of a taxonomic rank.
@@ -136,7 +165,8 @@ public class TaxonListDirectory {
     }
 
     /**
-     * Get the rank map for a particular rank.
+     * Get the rank map for a particular rank.  The rank map is loaded on the first call and shared after that,
+     * so the client must not modify it.
      *
      * @param rank	rank of interest
      *
@@ -149,70 +179,427 @@ public class TaxonListDirectory {
         RankMap retVal;
         if (level < 0)
             retVal = null;
-        else
-            retVal = new RankMap(this.rankFiles[level]);
+        else {
+            try {
+                retVal = this.rankMapCache.computeIfAbsent(level, x -> this.loadRankMap(x));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
         return retVal;
     }
 
     /**
-     * Update the rank maps from a genome source.  This is an expensive method that requires loading
-     * all the rank maps and the taxonomic tree into memory at once.
+     * Load the rank map for a rank level.
+     *
+     * @param level		rank level of interest
+     *
+     * @return the rank map loaded from the rank file
+     */
+    private RankMap loadRankMap(int level) {
+        try {
+            log.info("Loading rank map from {}.", this.rankFiles[level]);
+            return new RankMap(this.rankFiles[level], this.genomeTable);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get the offset index for a particular rank.  The index is built on the first call and shared after that.
+     *
+     * @param rank	rank of interest
+     *
+     * @return the offset index for the rank's file, NULL if the rank does not exist
      *
      * @throws IOException
      */
-    public void updateRankMaps(GenomeSource genomes) throws IOException {
-        // Load the data structures into memory.
-        log.info("Loading taxonomy tree from {}.", this.treeFile);
-        TaxTree taxTree = new TaxTree(this.treeFile);
-        log.info("Loading rank maps from {}.", this.dirName);
-        RankMap[] rankMaps = new RankMap[RANKS.length];
-        for (int i = 0; i < RANKS.length; i++)
-            rankMaps[i] = new RankMap(this.rankFiles[i]);
-        // Loop through the genomes.
-        final int nGenomes = genomes.size();
-        int gCount = 0;
-        int taxonCount = 0;
-        for (Genome genome : genomes) {
-            gCount++;
-            log.info("Scanning genome {} of {}: {}.", gCount, nGenomes, genome);
+    public RankIndex getRankIndex(String rank) throws IOException {
+        int level = getRankLevel(rank);
+        RankIndex retVal;
+        if (level < 0)
+            retVal = null;
+        else {
+            try {
+                retVal = this.rankOffsetCache.computeIfAbsent(level, x -> this.loadRankIndex(x));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Build the offset index for a rank level.
+     *
+     * @param level		rank level of interest
+     *
+     * @return the offset index for the rank file
+     */
+    private RankIndex loadRankIndex(int level) {
+        try {
+            log.info("Indexing rank file {}.", this.rankFiles[level]);
+            return new RankIndex(this.rankFiles[level]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * This is the base class for objects that accumulate taxonomy data from genome lineages.  It walks each lineage
+     * from the smallest grouping to the largest, adding the genome to the rank maps and recording the ranks of the
+     * groupings found and the genome's name and lineage.  The subclass decides what to do with the tree links.
+     */
+    private static abstract class LineageCollector {
+
+        /** rank maps being updated, in rank-level order */
+        protected RankMap[] rankMaps;
+        /** map of taxonomic grouping IDs found to ranks */
+        protected Map<Integer, String> ranks;
+        /** map of genome IDs to names and lineages */
+        protected Map<String, GenomeLineageTable.GenomeData> lineages;
+        /** number of genomes added */
+        protected int gCount;
+        /** number of rank-map memberships added */
+        protected int taxonCount;
+
+        /**
+         * Initialize the collector.
+         *
+         * @param rankMaps		rank maps to update, in rank-level order
+         * @param lineages		map of genome IDs to names and lineages to update
+         */
+        protected LineageCollector(RankMap[] rankMaps, Map<String, GenomeLineageTable.GenomeData> lineages) {
+            this.rankMaps = rankMaps;
+            this.lineages = lineages;
+            this.ranks = new HashMap<Integer, String>();
+            this.gCount = 0;
+            this.taxonCount = 0;
+        }
+
+        /**
+         * Add a genome given its lineage.
+         *
+         * @param genomeId		ID of the genome to add
+         * @param name			name of the genome, or NULL if it is unknown
+         * @param taxonomy		iterator through the genome's taxonomic groupings, from smallest to largest
+         */
+        protected void addLineage(String genomeId, String name, Iterator<TaxItem> taxonomy) {
+            this.gCount++;
             // Save a null value for the current child ID.
             int lastChild = -1;
+            // This will accumulate the lineage.
+            int[] lineage = new int[LINEAGE_BUFFER_SIZE];
+            int lineageLen = 0;
             // Loop through the taxonomy.  We will go from children to parents.
-            Iterator<TaxItem> iter = genome.taxonomy();
-            while (iter.hasNext()) {
-                TaxItem taxItem = iter.next();
+            while (taxonomy.hasNext()) {
+                TaxItem taxItem = taxonomy.next();
+                if (lineageLen >= lineage.length)
+                    lineage = Arrays.copyOf(lineage, lineage.length * 2);
+                lineage[lineageLen++] = taxItem.getId();
                 int rankLevel = getRankLevel(taxItem.getRank());
                 if (rankLevel >= 0) {
                     // Here we have a taxonomic rank of interest.  Add it to the correct rank map.
-                    RankMap rankMap = rankMaps[rankLevel];
-                    rankMap.add(genome.getId(), taxItem);
-                    taxonCount++;
+                    this.rankMaps[rankLevel].add(genomeId, taxItem);
+                    this.taxonCount++;
                     // Form a parent-child link in the tree if needed.
                     if (lastChild >= 0)
-                        taxTree.addLink(lastChild, taxItem.getId(), rankLevel);
+                        this.addLink(lastChild, taxItem.getId(), rankLevel);
                     lastChild = taxItem.getId();
-                    // Add the taxonomic grouping to the rank index.
-                    this.rankIndex.put(taxItem.getId(), taxItem.getRank());
+                    // Remember the taxonomic grouping for the rank index.
+                    this.ranks.put(taxItem.getId(), taxItem.getRank());
+                }
+            }
+            // Record the genome's lineage, largest grouping first.
+            this.lineages.put(genomeId, new GenomeLineageTable.GenomeData(name, reverseLineage(lineage, lineageLen)));
+        }
+
+        /**
+         * Record a parent-child link in the taxonomic tree.
+         *
+         * @param childId		ID of the child grouping
+         * @param parentId		ID of the parent grouping
+         * @param rankLevel		rank level of the parent grouping
+         */
+        protected abstract void addLink(int childId, int parentId, int rankLevel);
+
+    }
+
+    /**
+     * This object accumulates the taxonomy data for a subset of the genomes during a parallel update.  It is
+     * filled by a single worker thread and then merged into the updater.
+     */
+    private static class PartialUpdate extends LineageCollector {
+
+        /** tree links found, as (child, parent, level) triples in the order found */
+        private int[] links;
+        /** number of link values stored */
+        private int linkCount;
+
+        /**
+         * Create an empty partial update.
+         */
+        protected PartialUpdate() {
+            super(new RankMap[RANKS.length], new HashMap<String, GenomeLineageTable.GenomeData>());
+            GenomeIdTable genomeTable = new GenomeIdTable();
+            for (int i = 0; i < RANKS.length; i++)
+                this.rankMaps[i] = new RankMap(genomeTable);
+            this.links = new int[300];
+            this.linkCount = 0;
+        }
+
+        @Override
+        protected void addLink(int childId, int parentId, int rankLevel) {
+            if (this.linkCount + 3 > this.links.length)
+                this.links = Arrays.copyOf(this.links, this.links.length * 2);
+            this.links[this.linkCount++] = childId;
+            this.links[this.linkCount++] = parentId;
+            this.links[this.linkCount++] = rankLevel;
+        }
+
+    }
+
+    /**
+     * This object performs an incremental update of the directory.  It loads the rank maps and the taxonomic tree
+     * into memory and accepts genomes one at a time.  Nothing is written until the client calls "save", which
+     * should only be done once all the genomes have been added successfully; closing the updater without saving
+     * discards the update.  Genomes can be added from multiple threads.  Only one updater should be open for a
+     * directory at any time.
+     */
+    public class Updater extends LineageCollector implements AutoCloseable {
+
+        /** taxonomic tree being updated */
+        private TaxTree taxTree;
+        /** TRUE if the update has been saved */
+        private boolean saved;
+
+        /**
+         * Load the data structures for an update.
+         *
+         * @throws IOException
+         */
+        protected Updater() throws IOException {
+            super(new RankMap[RANKS.length], null);
+            log.info("Loading taxonomy tree from {}.", TaxonListDirectory.this.treeFile);
+            this.taxTree = new TaxTree(TaxonListDirectory.this.treeFile);
+            log.info("Loading rank maps from {}.", TaxonListDirectory.this.dirName);
+            GenomeIdTable genomeTable = new GenomeIdTable();
+            for (int i = 0; i < RANKS.length; i++)
+                this.rankMaps[i] = new RankMap(TaxonListDirectory.this.rankFiles[i], genomeTable);
+            try (GenomeLineageTable lineageTable = TaxonListDirectory.this.getLineageTable()) {
+                this.lineages = lineageTable.getAll();
+            }
+            this.saved = false;
+        }
+
+        /**
+         * Add a genome to the taxonomy data.
+         *
+         * @param genome	genome to add
+         */
+        public void add(Genome genome) {
+            this.add(genome.getId(), genome.getName(), genome.taxonomy());
+        }
+
+        /**
+         * Add a genome to the taxonomy data given its lineage.  The genome name will be unknown.
+         *
+         * @param genomeId		ID of the genome to add
+         * @param taxonomy		iterator through the genome's taxonomic groupings, from smallest to largest
+         */
+        public void add(String genomeId, Iterator<TaxItem> taxonomy) {
+            this.add(genomeId, null, taxonomy);
+        }
+
+        /**
+         * Add a genome to the taxonomy data given its lineage.
+         *
+         * @param genomeId		ID of the genome to add
+         * @param name			name of the genome, or NULL if it is unknown
+         * @param taxonomy		iterator through the genome's taxonomic groupings, from smallest to largest
+         */
+        public synchronized void add(String genomeId, String name, Iterator<TaxItem> taxonomy) {
+            this.addLineage(genomeId, name, taxonomy);
+        }
+
+        @Override
+        protected void addLink(int childId, int parentId, int rankLevel) {
+            this.taxTree.addLink(childId, parentId, rankLevel);
+        }
+
+        /**
+         * Merge a partial update into this update.  The tree links are replayed in the order they were found, so
+         * merging the partial updates in a fixed order gives a fixed result.
+         *
+         * @param partial	partial update to merge
+         */
+        protected synchronized void merge(PartialUpdate partial) {
+            for (int i = 0; i < RANKS.length; i++)
+                this.rankMaps[i].merge(partial.rankMaps[i]);
+            for (int i = 0; i < partial.linkCount; i += 3)
+                this.taxTree.addLink(partial.links[i], partial.links[i+1], partial.links[i+2]);
+            this.ranks.putAll(partial.ranks);
+            this.lineages.putAll(partial.lineages);
+            this.gCount += partial.gCount;
+            this.taxonCount += partial.taxonCount;
+        }
+
+        /**
+         * Save all the updated files.  This should only be called after all the genomes have been added.
+         *
+         * @throws IOException
+         */
+        public synchronized void save() throws IOException {
+            log.info("{} genome IDs added to taxonomy rank maps for {} genomes.", this.taxonCount, this.gCount);
+            // Save all the files.
+            final File dirName = TaxonListDirectory.this.dirName;
+            log.info("Saving data to {}.", dirName);
+            this.taxTree.save();
+            for (int i = 0; i < RANKS.length; i++)
+                this.rankMaps[i].save(TaxonListDirectory.this.rankFiles[i]);
+            // The cached rank maps and indexes are now out of date.
+            TaxonListDirectory.this.rankMapCache.clear();
+            TaxonListDirectory.this.rankOffsetCache.clear();
+            TaxonListDirectory.this.genomeTable = new GenomeIdTable();
+            TaxonListDirectory.this.compiledTree = null;
+            GenomeLineageTable.save(new File(dirName, GenomeLineageTable.TABLE_FILE_NAME), this.lineages);
+            TaxonListDirectory.this.rankIndex.putAll(this.ranks);
+            File rankIndexFile = new File(dirName, RANK_INDEX_NAME);
+            try (PrintWriter writer = new PrintWriter(rankIndexFile)) {
+                writer.println("tax_id\trank");
+                for (var rankEntry : TaxonListDirectory.this.rankIndex.entrySet())
+                    writer.println(rankEntry.getKey() + "\t" + rankEntry.getValue());
+            }
+            this.saved = true;
+        }
+
+        /**
+         * Release the in-memory data structures.  If the update was not saved, it is discarded.
+         */
+        @Override
+        public synchronized void close() {
+            if (! this.saved && this.taxTree != null)
+                log.warn("Taxonomy update for {} genomes discarded without saving.", this.gCount);
+            this.taxTree = null;
+            this.rankMaps = null;
+            this.lineages = null;
+            this.ranks = null;
+        }
+
+    }
+
+    /**
+     * @return an updater for adding genomes to this directory
+     *
+     * @throws IOException
+     */
+    public Updater getUpdater() throws IOException {
+        return new Updater();
+    }
+
+    /**
+     * Update the rank maps from a genome source.  This is an expensive method that requires loading
+     * all the rank maps and the taxonomic tree into memory at once.
+     *
+     * @throws IOException
+     */
+    public void updateRankMaps(GenomeSource genomes) throws IOException {
+        try (Updater updater = this.getUpdater()) {
+            // Loop through the genomes.
+            final int nGenomes = genomes.size();
+            int gCount = 0;
+            for (Genome genome : genomes) {
+                gCount++;
+                log.info("Scanning genome {} of {}: {}.", gCount, nGenomes, genome);
+                updater.add(genome);
+            }
+            updater.save();
+        }
+    }
+
+    /**
+     * Update the rank maps from a genome source using multiple worker threads.  The genome IDs are sorted
+     * and divided into contiguous chunks.  Each worker loads the genomes in a chunk and accumulates their
+     * taxonomy data privately, and the chunk results are merged in order, so the output has the same content
+     * as the sequential update and does not depend on the number of workers.
+     *
+     * The genomes are loaded on the worker threads, so more than one worker should only be used with a genome
+     * source that is safe for concurrent loading.
+     *
+     * @param genomes	genome source containing the genomes to add
+     * @param workers	number of worker threads to use
+     *
+     * @throws IOException
+     */
+    public void updateRankMaps(GenomeSource genomes, int workers) throws IOException {
+        if (workers <= 1)
+            this.updateRankMaps(genomes);
+        else {
+            List<String> genomeIds = new ArrayList<String>(genomes.getIDs());
+            genomeIds.sort(null);
+            final int nGenomes = genomeIds.size();
+            // Use several chunks per worker to balance the load.
+            final int nChunks = Math.max(1, Math.min(nGenomes, workers * 4));
+            log.info("Scanning {} genomes in {} chunks using {} workers.", nGenomes, nChunks, workers);
+            try (Updater updater = this.getUpdater()) {
+                ExecutorService pool = Executors.newFixedThreadPool(workers);
+                AtomicInteger gCount = new AtomicInteger();
+                try {
+                    List<Future<PartialUpdate>> results = new ArrayList<Future<PartialUpdate>>(nChunks);
+                    for (int c = 0; c < nChunks; c++) {
+                        List<String> chunk = genomeIds.subList(c * nGenomes / nChunks, (c + 1) * nGenomes / nChunks);
+                        results.add(pool.submit(() -> this.scanChunk(genomes, chunk, gCount, nGenomes)));
+                    }
+                    // Merge the chunk results in order.
+                    for (Future<PartialUpdate> result : results)
+                        updater.merge(result.get());
+                    updater.save();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    else if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    else
+                        throw new RuntimeException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Taxonomy update interrupted.");
+                } finally {
+                    pool.shutdownNow();
                 }
             }
         }
-        log.info("{} genome IDs added to taxonomy rank maps for {} genomes.", taxonCount, gCount);
-        // Save all the files.
-        log.info("Saving data to {}.", this.dirName);
-        taxTree.save();
-        for (int i = 0; i < RANKS.length; i++)
-            rankMaps[i].save(this.rankFiles[i]);
-        File rankIndexFile = new File(this.dirName, RANK_INDEX_NAME);
-        try (PrintWriter writer = new PrintWriter(rankIndexFile)) {
-            writer.println("tax_id\trank");
-            for (var rankEntry : this.rankIndex.entrySet())
-                writer.println(rankEntry.getKey() + "\t" + rankEntry.getValue());
+    }
+
+    /**
+     * Load the genomes in a chunk and accumulate their taxonomy data.
+     *
+     * @param genomes		genome source containing the genomes
+     * @param chunk			list of IDs for the genomes to load
+     * @param gCount		counter of genomes scanned, for progress messages
+     * @param nGenomes		total number of genomes to scan
+     *
+     * @return a partial update containing the taxonomy data for the chunk
+     *
+     * @throws IOException
+     */
+    private PartialUpdate scanChunk(GenomeSource genomes, List<String> chunk, AtomicInteger gCount, int nGenomes)
+            throws IOException {
+        PartialUpdate retVal = new PartialUpdate();
+        for (String genomeId : chunk) {
+            Genome genome = genomes.getGenome(genomeId);
+            if (genome == null)
+                throw new IOException("Genome " + genomeId + " could not be loaded from the genome source.");
+            log.info("Scanned genome {} of {}: {}.", gCount.incrementAndGet(), nGenomes, genome);
+            retVal.addLineage(genome.getId(), genome.getName(), genome.taxonomy());
         }
+        return retVal;
     }
 
     /**
      * This loads all of the rank maps into memory and exposes them in a map keyed
-     * by rank.  Note that it is very memory-intensive.
+     * by rank.  Note that it is very memory-intensive, and that the rank maps are shared.
      *
      * @return a map of ranks to rank maps
      *
@@ -226,13 +613,56 @@ public class TaxonListDirectory {
     }
 
     /**
-     * @return the taxonomy tree
+     * @return the taxonomy tree as a map from each parent ID to its set of child IDs (the map is built from the
+     * 		   compiled tree on each call; use getCompiledTree to walk the tree without copying it)
      *
      * @throws IOException
      */
     public Map<Integer, Set<Integer>> getTaxTree() throws IOException {
-        TaxTree taxTree = new TaxTree(this.treeFile);
-        return taxTree.getTree();
+        return this.getCompiledTree().getTree();
+    }
+
+    /**
+     * @return the genome lineage table for this directory, which must be closed by the caller (the table will be
+     * 		   empty if no genomes have been added since the table was introduced)
+     *
+     * @throws IOException
+     */
+    public GenomeLineageTable getLineageTable() throws IOException {
+        return new GenomeLineageTable(new File(this.dirName, GenomeLineageTable.TABLE_FILE_NAME));
+    }
+
+    /**
+     * @return a lineage array, from largest grouping to smallest, built from taxonomic IDs ordered from smallest
+     * 		   to largest
+     *
+     * @param taxIds	array of taxonomic IDs, from smallest to largest
+     * @param n			number of IDs in the array to use
+     */
+    private static int[] reverseLineage(int[] taxIds, int n) {
+        int[] retVal = new int[n];
+        for (int i = 0; i < n; i++)
+            retVal[i] = taxIds[n - 1 - i];
+        return retVal;
+    }
+
+    /**
+     * @return the compiled taxonomy tree, which is loaded on the first call and shared after that
+     *
+     * @throws IOException
+     */
+    public CompiledTaxTree getCompiledTree() throws IOException {
+        CompiledTaxTree retVal = this.compiledTree;
+        if (retVal == null) {
+            synchronized (this) {
+                retVal = this.compiledTree;
+                if (retVal == null) {
+                    retVal = new TaxTree(this.treeFile).compile();
+                    this.compiledTree = retVal;
+                }
+            }
+        }
+        return retVal;
     }
 
     /**
@@ -244,6 +674,13 @@ public class TaxonListDirectory {
         return new TaxTree(this.treeFile);
     }
 
+    /**
+     * @return the name of this directory
+     */
+    public File getDirName() {
+        return this.dirName;
+    }
+
     /**
      * @return the rank of a taxonomic ID, or NULL if the ID does not exist in this directory
      *
@@ -262,12 +699,15 @@ public class TaxonListDirectory {
      */
     public Map<Integer, String> getNameMap(Set<Integer> taxSet) throws IOException {
         Map<Integer, String> retVal = new HashMap<Integer, String>((taxSet.size() + 2) / 3 * 4 + 1);
-        // Get a rank sorter for this taxonomic ID set.  This enables us to get the rank maps efficiently.
+        // Get a rank sorter for this taxonomic ID set.  This enables us to use the rank indexes efficiently.
+        // The index holds the names, so no genome lists need to be parsed.
         Map<String, Set<Integer>> rankSorter = this.getRankSorter(taxSet);
         for (var subSet : rankSorter.entrySet()) {
-            RankMap rankMap = this.getRankMap(subSet.getKey());
+            RankIndex rankIndex = this.getRankIndex(subSet.getKey());
             for (int taxId : subSet.getValue()) {
-                String name = rankMap.getTaxData(taxId).getName();
+                String name = (rankIndex == null ? null : rankIndex.getName(taxId));
+                if (name == null)
+                    throw new IOException("Taxonomic ID " + taxId + " not found in taxon list directory " + this.dirName + ".");
                 retVal.put(taxId, name);
             }
         }
@@ -275,6 +715,10 @@ public class TaxonListDirectory {
     }
 
     /**
+     * Return the genome sets for the specified taxonomic groupings.  If a rank map is already loaded, the sets are
+     * taken from it; otherwise, they are read individually using the rank index.  Either way, the sets returned
+     * should be treated as read-only.
+     *
      * @return a map from each taxonomic ID to the set of genomes in its group
      *
      * @param taxSet	set of taxonomic IDs to process
@@ -288,17 +732,27 @@ public class TaxonListDirectory {
         // Now we process each rank set, filling in the output set.
         Map<Integer, Set<String>> retVal = new HashMap<Integer, Set<String>>(taxSet.size() * 4 / 3 + 1);
         for (var rankEntry : rankSorter.entrySet()) {
-            // Get the map for this rank.
             String rank = rankEntry.getKey();
-            RankMap rankMap = this.getRankMap(rank);
-            // Loop through the taxons of this rank, putting them in the output map.
-            for (int taxId : rankEntry.getValue()) {
-                var taxData = rankMap.getTaxData(taxId);
-                if (taxData == null)
-                    throw new IOException("Taxon list directory " + this.dirName + " has a taxon tree that does not match its rank maps.");
-                Set<String> genomes = taxData.getGenomes();
-                retVal.put(taxId, genomes);
+            int level = getRankLevel(rank);
+            RankMap rankMap = (level < 0 ? null : this.rankMapCache.get(level));
+            boolean missing;
+            if (rankMap != null) {
+                // Here the rank map is loaded, so we use it.
+                missing = false;
+                for (int taxId : rankEntry.getValue()) {
+                    var taxData = rankMap.getTaxData(taxId);
+                    if (taxData == null)
+                        missing = true;
+                    else
+                        retVal.put(taxId, taxData.getGenomes());
+                }
+            } else {
+                // Here we read only the genome lists we need.
+                RankIndex rankIndex = this.getRankIndex(rank);
+                missing = (rankIndex == null || ! rankIndex.getGenomes(rankEntry.getValue(), retVal).isEmpty());
             }
+            if (missing)
+                throw new IOException("Taxon list directory " + this.dirName + " has a taxon tree that does not match its rank maps.");
         }
         return retVal;
     }
@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package org.theseed.genome.changes;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestIndexedReportFile {
+
+    @Test
+    void testIndexedReport() throws IOException {
+        File reportFile = new File("data", "reportTest.tbl");
+        File indexFile = new File("data", "reportTest.idx");
+        String nl = System.lineSeparator();
+        try (IndexedReportFile.Writer writer = new IndexedReportFile.Writer(reportFile, indexFile, "genome_id\ttag")) {
+            writer.add("100.1", "100.1\tA" + nl + "100.1\tB" + nl);
+            writer.add("200.2", "");
+            writer.add("300.3", "300.3\tCé" + nl);
+            writer.commit();
+        }
+        try (IndexedReportFile report = new IndexedReportFile(reportFile, indexFile)) {
+            assertThat(report.getHeader(), equalTo("genome_id\ttag"));
+            assertThat(report.getKeys(), equalTo(Set.of("100.1", "200.2", "300.3")));
+            assertThat(report.getLines("100.1"), contains("100.1\tA", "100.1\tB"));
+            assertThat(report.getLines("200.2"), empty());
+            assertThat(report.getLines("300.3"), contains("300.3\tCé"));
+            List<String> missing = report.getLines("400.4");
+            assertThat(missing, empty());
+        } finally {
+            FileUtils.deleteQuietly(reportFile);
+            FileUtils.deleteQuietly(indexFile);
+        }
+        // An uncommitted report leaves nothing behind.
+        try (IndexedReportFile.Writer writer = new IndexedReportFile.Writer(reportFile, indexFile, "genome_id\ttag")) {
+            writer.add("100.1", "100.1\tA" + nl);
+        }
+        assertThat(reportFile.exists(), equalTo(false));
+        assertThat(indexFile.exists(), equalTo(false));
+        assertThat(new File("data", "reportTest.tbl.tmp").exists(), equalTo(false));
+    }
+
+}
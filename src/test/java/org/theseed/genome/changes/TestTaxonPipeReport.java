@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package org.theseed.genome.changes;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestTaxonPipeReport {
+
+    /**
+     * This is the original report loop, which filters each lineage grouping's whole distinguishing set against
+     * the genome's tags and removes tags once they are reported.
+     *
+     * @param genomeTags	set of tags for the genome
+     * @param lineage		lineage of the genome, from largest grouping to smallest
+     * @param parents		parent ID for each grouping in the lineage, or -1 if the parent is unknown
+     * @param diffMap		map of taxonomic IDs to distinguishing tags
+     *
+     * @return a list parallel to the lineage, containing the tags reported for each grouping (NULL if there are none)
+     */
+    private static List<Set<String>> oldLevelTags(Set<String> genomeTags, int[] lineage, int[] parents,
+            Map<Integer, Set<String>> diffMap) {
+        Set<String> tags = new HashSet<String>(genomeTags);
+        List<Set<String>> retVal = new ArrayList<Set<String>>(lineage.length);
+        for (int i = 0; i < lineage.length; i++)
+            retVal.add(null);
+        for (int i = lineage.length - 1; i >= 0; i--) {
+            if (parents[i] >= 0) {
+                Set<String> diffTags = diffMap.get(lineage[i]);
+                if (diffTags != null) {
+                    Set<String> myTags = diffTags.stream().filter(x -> tags.contains(x)).collect(Collectors.toSet());
+                    if (! myTags.isEmpty()) {
+                        retVal.set(i, myTags);
+                        tags.removeAll(myTags);
+                    }
+                }
+            }
+        }
+        return retVal;
+    }
+
+    @Test
+    void testLevelTags() {
+        // Lineage is 1 (no known parent), 10, 100, 1000.  Tag M distinguishes three levels, and must only be
+        // reported at the smallest.  Tag D only distinguishes the grouping with no parent, so it is not reported.
+        int[] lineage = new int[] { 1, 10, 100, 1000 };
+        int[] parents = new int[] { -1, 1, 10, 100 };
+        Map<Integer, Set<String>> diffMap = new HashMap<Integer, Set<String>>();
+        diffMap.put(1000, Set.of("A", "M"));
+        diffMap.put(100, Set.of("M", "B"));
+        diffMap.put(10, Set.of("M", "B", "C", "F"));
+        diffMap.put(1, Set.of("D"));
+        diffMap.put(2000, Set.of("E"));
+        Set<String> genomeTags = Set.of("A", "M", "B", "C", "D", "E", "G");
+        Map<String, Set<Integer>> tagIndex = TaxonPipeProcessor.invertDiffMap(diffMap);
+        assertThat(tagIndex.get("M"), equalTo(Set.of(10, 100, 1000)));
+        List<Set<String>> levelTags = TaxonPipeProcessor.assignLevelTags(genomeTags, lineage, parents, tagIndex);
+        assertThat(levelTags.get(3), equalTo(Set.of("A", "M")));
+        assertThat(levelTags.get(2), equalTo(Set.of("B")));
+        assertThat(levelTags.get(1), equalTo(Set.of("C")));
+        assertThat(levelTags.get(0), nullValue());
+        assertThat(levelTags, equalTo(oldLevelTags(genomeTags, lineage, parents, diffMap)));
+        // If the middle grouping has no known parent, its tags fall through to the next larger grouping.
+        parents[2] = -1;
+        levelTags = TaxonPipeProcessor.assignLevelTags(genomeTags, lineage, parents, tagIndex);
+        assertThat(levelTags.get(2), nullValue());
+        assertThat(levelTags.get(1), equalTo(Set.of("B", "C")));
+        assertThat(levelTags, equalTo(oldLevelTags(genomeTags, lineage, parents, diffMap)));
+        // Compare the two methods on random lineages and difference maps.
+        Random rand = new Random(1234L);
+        for (int trial = 0; trial < 200; trial++) {
+            final int depth = rand.nextInt(8) + 1;
+            lineage = new int[depth];
+            parents = new int[depth];
+            for (int i = 0; i < depth; i++) {
+                lineage[i] = (i + 1) * 100 + rand.nextInt(5);
+                parents[i] = (i == 0 || rand.nextInt(6) == 0 ? -1 : lineage[i-1]);
+            }
+            diffMap.clear();
+            for (int taxId : lineage) {
+                Set<String> diffTags = new HashSet<String>();
+                for (int t = 0; t < 10; t++)
+                    diffTags.add("T" + rand.nextInt(40));
+                diffMap.put(taxId, diffTags);
+            }
+            Set<String> tags = new HashSet<String>();
+            for (int t = 0; t < 25; t++)
+                tags.add("T" + rand.nextInt(40));
+            tagIndex = TaxonPipeProcessor.invertDiffMap(diffMap);
+            assertThat(TaxonPipeProcessor.assignLevelTags(tags, lineage, parents, tagIndex),
+                    equalTo(oldLevelTags(tags, lineage, parents, diffMap)));
+        }
+    }
+
+}
@@ -84,6 +84,21 @@ class TestCompareEngine implements FeatureScanner.IParms {
         TagCounts counts2 = tags.getTagCounts(GENOMES2);
         Set<String> newDiff1 = testEngine.distinguishLeft(counts1, GENOMES1.size(), counts2, GENOMES2.size());
         assertThat(newDiff1, equalTo(diff1));
+        // Test the fused one-vs-rest comparison against an explicit complement, for both array and hash counts.
+        TagCounts total = tags.createTagCounts();
+        total.merge(counts1);
+        total.merge(counts2);
+        int totalSize = GENOMES1.size() + GENOMES2.size();
+        Set<String> fused1 = testEngine.distinguishFromRest(total, totalSize, counts1, GENOMES1.size());
+        assertThat(fused1, equalTo(testEngine.distinguishLeft(counts1, GENOMES1.size(), total.minus(counts1), GENOMES2.size())));
+        assertThat(fused1, equalTo(diff1));
+        Set<String> fused2 = testEngine.distinguishFromRest(total, totalSize, counts2, GENOMES2.size());
+        assertThat(fused2, equalTo(diff.getSet2()));
+        TagCounts hashTotal = new TagCounts();
+        hashTotal.merge(tags1);
+        hashTotal.merge(tags2);
+        assertThat(testEngine.distinguishFromRest(hashTotal, totalSize, tags1, GENOMES1.size()), equalTo(diff1));
+        assertThat(testEngine.distinguishFromRest(hashTotal, totalSize, tags2, GENOMES2.size()), equalTo(diff.getSet2()));
     }
 
     /**
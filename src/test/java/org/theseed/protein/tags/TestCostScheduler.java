@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestCostScheduler {
+
+    @Test
+    void testScheduler() throws IOException {
+        CostScheduler<Integer> scheduler = new CostScheduler<Integer>(4, 2);
+        scheduler.setLargeThreshold(100);
+        for (int i = 1; i <= 200; i++)
+            scheduler.add(i, i);
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        AtomicInteger largeInFlight = new AtomicInteger();
+        AtomicInteger maxLargeSeen = new AtomicInteger();
+        scheduler.run(x -> {
+            boolean large = (x >= 100);
+            if (large) {
+                int current = largeInFlight.incrementAndGet();
+                maxLargeSeen.accumulateAndGet(current, Math::max);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (large)
+                largeInFlight.decrementAndGet();
+            processed.add(x);
+        });
+        assertThat(processed.size(), equalTo(200));
+        assertThat(maxLargeSeen.get(), lessThanOrEqualTo(2));
+        // Verify that errors are passed back to the caller.
+        CostScheduler<Integer> failer = new CostScheduler<Integer>(3, 1);
+        for (int i = 1; i <= 20; i++)
+            failer.add(i, i);
+        assertThrows(IOException.class, () -> failer.run(x -> {
+            if (x == 7)
+                throw new IOException("Test failure.");
+        }));
+        assertThrows(IllegalStateException.class, () -> failer.run(x -> {
+            if (x == 7)
+                throw new IllegalStateException("Test failure.");
+        }));
+        assertThrows(AssertionError.class, () -> failer.run(x -> {
+            if (x == 7)
+                throw new AssertionError("Test failure.");
+        }));
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package org.theseed.protein.tags;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.genome.TaxItem;
+import org.theseed.taxonomy.TaxonListDirectory;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestSyntheticTagGenerator {
+
+    @Test
+    void testGenerator() throws IOException, ParseFailureException {
+        SyntheticTagGenerator generator = new SyntheticTagGenerator(200, 5000, 17L);
+        generator.setFanOut(2, 3, 2);
+        generator.setGenomeTags(300);
+        int[] rankSizes = generator.getRankSizes();
+        assertThat(rankSizes[0], equalTo(2));
+        assertThat(rankSizes[1], equalTo(6));
+        assertThat(rankSizes[2], equalTo(12));
+        assertThat(rankSizes[3], equalTo(24));
+        assertThat(rankSizes[6], lessThanOrEqualTo(200));
+        // Verify the lineages nest properly.
+        for (int g = 0; g < 200; g++) {
+            List<TaxItem> lineage = generator.lineage(g);
+            assertThat(lineage.size(), equalTo(TaxonListDirectory.RANKS.length));
+            assertThat(lineage.get(0).getRank(), equalTo("species"));
+            for (int g2 = 0; g2 < 200; g2++) {
+                for (int r = 1; r < rankSizes.length; r++) {
+                    if (generator.taxId(g, r) == generator.taxId(g2, r))
+                        assertThat(generator.taxId(g, r - 1), equalTo(generator.taxId(g2, r - 1)));
+                }
+            }
+        }
+        // Verify the tag sets are reproducible.
+        SyntheticTagGenerator generator2 = new SyntheticTagGenerator(200, 5000, 17L);
+        generator2.setFanOut(2, 3, 2);
+        generator2.setGenomeTags(300);
+        assertThat(generator2.tags(42), equalTo(generator.tags(42)));
+        // Verify the Zipf distribution favors the low-numbered tags.
+        TagCounts counts = new TagCounts();
+        for (int g = 0; g < 200; g++)
+            counts.count(generator.tags(g));
+        assertThat(counts.getCount(SyntheticTagGenerator.tagName(0)), greaterThan(counts.getCount(SyntheticTagGenerator.tagName(4000))));
+        // Build the directories and run a comparison.
+        File taxDirName = new File("data", "synthTaxTest");
+        File tagDirName = new File("data", "synthTagTest");
+        if (taxDirName.isDirectory())
+            FileUtils.deleteDirectory(taxDirName);
+        if (tagDirName.isDirectory())
+            FileUtils.deleteDirectory(tagDirName);
+        TaxonListDirectory taxDir = new TaxonListDirectory(taxDirName);
+        generator.fillTaxonDirectory(taxDir);
+        TagDirectory tagDir = new TagDirectory(tagDirName);
+        int tagsUsed = generator.fillTagDirectory(tagDir);
+        assertThat(tagsUsed, equalTo(counts.size()));
+        assertThat(tagDir.size(), equalTo(200));
+        assertThat(tagDir.getGenome(SyntheticTagGenerator.genomeId(42)), equalTo(generator.tags(42)));
+        TaxonCompare compare = new TaxonCompare(taxDir, tagDir, 0.2, 0.8);
+        Map<Integer, Set<String>> results = compare.computeDistinguishingTags();
+        Set<String> phylumTags = results.get(generator.taxId(0, 1));
+        assertThat(phylumTags, not(empty()));
+    }
+
+}
@@ -11,7 +11,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.junit.jupiter.api.Test;
 
@@ -132,4 +134,133 @@ class TestTagCounts {
         assertThat(tagMap.getCount("J"), equalTo(2));
     }
 
+    @Test
+    void testTagDictionary() {
+        TagDictionary dict = new TagDictionary();
+        assertThat(dict.size(), equalTo(0));
+        assertThat(dict.findId("A"), equalTo(-1));
+        assertThat(dict.getId("A"), equalTo(0));
+        assertThat(dict.getId("B"), equalTo(1));
+        assertThat(dict.getId("A"), equalTo(0));
+        assertThat(dict.findId("B"), equalTo(1));
+        assertThat(dict.size(), equalTo(2));
+        String c1 = new String("C");
+        String c2 = new String("C");
+        assertThat(dict.intern(c1), sameInstance(c1));
+        assertThat(dict.intern(c2), sameInstance(c1));
+        int[] ids = dict.getIds(Set.of("C", "A", "D"));
+        assertThat(ids.length, equalTo(3));
+        assertThat(ids[0], equalTo(0));
+        assertThat(ids[1], equalTo(2));
+        assertThat(ids[2], equalTo(3));
+        assertThat(dict.getTags(ids), containsInAnyOrder("A", "C", "D"));
+        assertThat(dict.getTag(3), equalTo("D"));
+        // The find methods should not add tags.
+        ids = dict.findIds(Set.of("D", "E", "A"));
+        assertThat(ids.length, equalTo(2));
+        assertThat(ids[0], equalTo(0));
+        assertThat(ids[1], equalTo(3));
+        String c3 = new String("C");
+        assertThat(dict.findTag(c3), sameInstance(c1));
+        String e1 = new String("E");
+        assertThat(dict.findTag(e1), sameInstance(e1));
+        assertThat(dict.size(), equalTo(4));
+        TagDictionary dict2 = new TagDictionary(List.of("X", "Y", "Z"));
+        assertThat(dict2.size(), equalTo(3));
+        assertThat(dict2.findId("Z"), equalTo(2));
+        // Force the tag array to grow.
+        for (int i = 0; i < 10000; i++)
+            dict2.getId("T" + i);
+        assertThat(dict2.size(), equalTo(10003));
+        assertThat(dict2.getTag(10002), equalTo("T9999"));
+        assertThat(dict2.getTag(0), equalTo("X"));
+    }
+
+    @Test
+    void testArrayTagCounts() {
+        TagDictionary dict = new TagDictionary();
+        ArrayTagCounts tagMap = new ArrayTagCounts(dict);
+        tagMap.count("A");
+        tagMap.count("B", 2);
+        tagMap.count(Set.of("B", "C"));
+        assertThat(tagMap.getCount("A"), equalTo(1));
+        assertThat(tagMap.getCount("B"), equalTo(3));
+        assertThat(tagMap.getCount("C"), equalTo(1));
+        assertThat(tagMap.getCount("D"), equalTo(0));
+        assertThat(tagMap.size(), equalTo(3));
+        int[] ids = dict.getIds(Set.of("A", "D"));
+        tagMap.count(ids);
+        assertThat(tagMap.getCount("A"), equalTo(2));
+        assertThat(tagMap.getCount(dict.findId("D")), equalTo(1));
+        assertThat(tagMap.size(), equalTo(4));
+        // Test merge and minus with a compatible map.
+        ArrayTagCounts tagMap2 = new ArrayTagCounts(dict);
+        tagMap2.count("A", 1);
+        tagMap2.count("E", 4);
+        tagMap.merge(tagMap2);
+        assertThat(tagMap.getCount("A"), equalTo(3));
+        assertThat(tagMap.getCount("E"), equalTo(4));
+        assertThat(tagMap.size(), equalTo(5));
+        TagCounts tagMap3 = tagMap.minus(tagMap2);
+        assertThat(tagMap3.getCount("A"), equalTo(2));
+        assertThat(tagMap3.getCount("B"), equalTo(3));
+        assertThat(tagMap3.getCount("E"), equalTo(0));
+        assertThat(tagMap3.size(), equalTo(4));
+        assertThat(tagMap.getCount("E"), equalTo(4));
+        // Test merge and minus with a hash map.
+        TagCounts hashMap = new TagCounts();
+        hashMap.count("B", 2);
+        hashMap.count("F", 1);
+        tagMap.merge(hashMap);
+        assertThat(tagMap.getCount("B"), equalTo(5));
+        assertThat(tagMap.getCount("F"), equalTo(1));
+        tagMap3 = tagMap.minus(hashMap);
+        assertThat(tagMap3.getCount("B"), equalTo(3));
+        assertThat(tagMap3.getCount("F"), equalTo(0));
+        assertThat(tagMap3.getCount("A"), equalTo(3));
+        // Test the range scan.
+        assertThat(tagMap.getTagsInRange(3, 4), containsInAnyOrder("A", "E"));
+        assertThat(tagMap.getTagsInRange(5, Integer.MAX_VALUE), containsInAnyOrder("B"));
+        assertThat(hashMap.getTagsInRange(1, 1), containsInAnyOrder("F"));
+        // Test the sorted entries.
+        var sorted = tagMap.getSortedCounts();
+        assertThat(sorted.size(), equalTo(6));
+        assertThat(sorted.get(0).getKey(), equalTo("B"));
+        assertThat(sorted.get(0).getValue().getValue(), equalTo(5));
+        tagMap.clear();
+        assertThat(tagMap.size(), equalTo(0));
+    }
+
+    @Test
+    void testBitSliceCounter() {
+        TagDictionary dict = new TagDictionary();
+        for (int i = 0; i < 300; i++)
+            dict.getId("T" + i);
+        Random rand = new Random(1234);
+        BitSliceCounter counter = new BitSliceCounter(100);
+        int[] expected = new int[300];
+        for (int g = 0; g < 500; g++) {
+            // Build a random tag set.  The tag ID limit grows, to test widening.
+            int limit = (g < 100 ? 100 : 300);
+            Set<Integer> idSet = new TreeSet<Integer>();
+            for (int k = rand.nextInt(80); k > 0; k--)
+                idSet.add(rand.nextInt(limit));
+            int[] ids = idSet.stream().mapToInt(x -> x).toArray();
+            TagBitMap bitMap = new TagBitMap(ids);
+            assertThat(bitMap.size(), equalTo(ids.length));
+            assertThat(bitMap.getIds(), equalTo(ids));
+            for (int id : ids) {
+                assertThat(bitMap.contains(id), equalTo(true));
+                expected[id]++;
+            }
+            counter.add(bitMap);
+        }
+        ArrayTagCounts counts = counter.getTagCounts(dict);
+        for (int i = 0; i < 300; i++)
+            assertThat(String.valueOf(i), counts.getCount(i), equalTo(expected[i]));
+        TagBitMap empty = new TagBitMap(new int[0]);
+        assertThat(empty.size(), equalTo(0));
+        assertThat(empty.contains(5), equalTo(false));
+    }
+
 }
@@ -8,6 +8,8 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
@@ -51,15 +53,172 @@ class TestTagDirectory implements FeatureScanner.IParms {
             Set<String> roleTags = tagController.getGenome(genomeId);
             TestTagScanners.verifyRoleTags(genome, roleTags, "tag controller 1", roleMap);
         }
-        // Now reload the tag directory.
+        // Now reload the tag directory.  The dictionary should be complete on load, and reading should not change it.
+        final int dictSize = tagController.getDictionary().size();
         tagController = new TagDirectory(tagDir);
         assertThat(tagController.size(), equalTo(GENOME_SET_1.length));
+        assertThat(tagController.getDictionary().size(), equalTo(dictSize));
         for (String genomeId : GENOME_SET_1) {
             assertThat(genomeId, tagController.isInDirectory(genomeId), equalTo(true));
             Set<String> roleTags = tagController.getGenome(genomeId);
             Genome genome = this.loadGTO(genomeId);
             TestTagScanners.verifyRoleTags(genome, roleTags, "tag controller 2", roleMap);
+            // Verify the tag IDs match the tags.
+            int[] tagIds = tagController.getGenomeTagIds(genomeId);
+            assertThat(genomeId, tagController.getDictionary().getTags(tagIds), equalTo(roleTags));
         }
+        assertThat(tagController.getDictionary().size(), equalTo(dictSize));
+        // An old directory without a vocabulary file should get the same vocabulary.
+        FileUtils.forceDelete(new File(tagDir, TagDirectory.VOCAB_FILE_NAME));
+        tagController = new TagDirectory(tagDir);
+        assertThat(tagController.getDictionary().size(), equalTo(dictSize));
+        assertThat(new File(tagDir, TagDirectory.VOCAB_FILE_NAME).canRead(), equalTo(true));
+    }
+
+    @Test
+    void testAddGenome() throws IOException, ParseFailureException {
+        FeatureScanner roleScanner = FeatureScanner.Type.ROLE.create(this);
+        File tagDir = new File("data", "tagTest4");
+        // Adding a genome by scanning it must store the same tags as adding its precomputed tag set, whether the
+        // tag sets are in files or in memory as bitmaps.
+        for (boolean inMemory : new boolean[] { false, true }) {
+            if (tagDir.isDirectory())
+                FileUtils.deleteDirectory(tagDir);
+            TagDirectory tagController = new TagDirectory(tagDir);
+            if (inMemory)
+                tagController.loadBitMaps();
+            assertThat(tagController.isInMemory(), equalTo(inMemory));
+            for (String genomeId : new String[] { "511145.12", GENOME_SET_1[0], GENOME_SET_2[0] }) {
+                String label = genomeId + (inMemory ? " bitmaps" : " files");
+                Genome genome = this.loadGTO(genomeId);
+                Set<String> expected = roleScanner.getTags(genome);
+                tagController.addGenome(genome, roleScanner);
+                Set<String> scanned = tagController.getGenome(genomeId);
+                int[] scannedIds = tagController.getGenomeTagIds(genomeId).clone();
+                assertThat(label, scanned, equalTo(expected));
+                // Now store the precomputed set over it.  Both use the same dictionary, so the IDs must match.
+                tagController.addTags(genomeId, expected);
+                assertThat(label, tagController.getGenome(genomeId), equalTo(scanned));
+                assertThat(label, tagController.getGenomeTagIds(genomeId), equalTo(scannedIds));
+                assertThat(label, new TagBitMap(tagController.getGenomeTagIds(genomeId)),
+                        equalTo(new TagBitMap(scannedIds)));
+            }
+            // The tag files must match as well.
+            TagDirectory reloaded = new TagDirectory(tagDir);
+            for (String genomeId : new String[] { "511145.12", GENOME_SET_1[0], GENOME_SET_2[0] })
+                assertThat(genomeId, reloaded.getGenome(genomeId), equalTo(tagController.getGenome(genomeId)));
+            reloaded.close();
+            tagController.close();
+        }
+    }
+
+    @Test
+    void testPackedStore() throws IOException, ParseFailureException {
+        FeatureScanner roleScanner = FeatureScanner.Type.ROLE.create(this);
+        File tagDir = new File("data", "tagPackTest");
+        if (tagDir.isDirectory())
+            FileUtils.deleteDirectory(tagDir);
+        TagDirectory tagController = new TagDirectory(tagDir);
+        for (String genomeId : GENOME_SET_1)
+            tagController.addGenome(this.loadGTO(genomeId), roleScanner);
+        Set<String> genomeSet = Set.of(GENOME_SET_1);
+        TagCounts oldCounts = tagController.getTagCounts(genomeSet);
+        Map<String, Set<String>> oldTags = new HashMap<String, Set<String>>();
+        for (String genomeId : GENOME_SET_1)
+            oldTags.put(genomeId, tagController.getGenome(genomeId));
+        // Pack the directory.  The individual files should go away.
+        tagController.pack();
+        assertThat(tagController.isPacked(), equalTo(true));
+        assertThat(new File(tagDir, TagDirectory.PACK_FILE_NAME).canRead(), equalTo(true));
+        assertThat(new File(tagDir, GENOME_SET_1[0] + ".tags").exists(), equalTo(false));
+        assertThat(tagController.size(), equalTo(GENOME_SET_1.length));
+        // Add a genome after packing.
+        tagController.addGenome(this.loadGTO(GENOME_SET_2[0]), roleScanner);
+        Set<String> addedTags = tagController.getGenome(GENOME_SET_2[0]);
+        // Reload the directory and verify the tags and counts.
+        tagController = new TagDirectory(tagDir);
+        assertThat(tagController.isPacked(), equalTo(true));
+        assertThat(tagController.size(), equalTo(GENOME_SET_1.length + 1));
+        for (String genomeId : GENOME_SET_1) {
+            assertThat(genomeId, tagController.isInDirectory(genomeId), equalTo(true));
+            assertThat(genomeId, tagController.getGenome(genomeId), equalTo(oldTags.get(genomeId)));
+        }
+        assertThat(tagController.getGenome(GENOME_SET_2[0]), equalTo(addedTags));
+        assertThat(tagController.getGenome("511145.12"), empty());
+        TagCounts newCounts = tagController.getTagCounts(genomeSet);
+        assertThat(newCounts.size(), equalTo(oldCounts.size()));
+        for (var counter : oldCounts.getAllCounts())
+            assertThat(counter.getKey(), newCounts.getCount(counter.getKey()), equalTo(counter.getValue().getValue()));
+        // Load the directory into memory and verify again.
+        tagController.loadBitMaps();
+        assertThat(tagController.isInMemory(), equalTo(true));
+        for (String genomeId : GENOME_SET_1)
+            assertThat(genomeId, tagController.getGenome(genomeId), equalTo(oldTags.get(genomeId)));
+        newCounts = tagController.getTagCounts(genomeSet);
+        assertThat(newCounts.size(), equalTo(oldCounts.size()));
+        for (var counter : oldCounts.getAllCounts())
+            assertThat(counter.getKey(), newCounts.getCount(counter.getKey()), equalTo(counter.getValue().getValue()));
+        // Re-adding a packed genome should not change the size.
+        tagController.addGenome(this.loadGTO(GENOME_SET_1[0]), roleScanner);
+        assertThat(tagController.size(), equalTo(GENOME_SET_1.length + 1));
+        tagController.close();
+        // A store that is never committed should be deleted.
+        File badPack = new File(tagDir, "bad.pack");
+        try (PackedTagStore.Writer writer = new PackedTagStore.Writer(badPack, tagController.getDictionary())) {
+            writer.add(GENOME_SET_1[0], new int[] { 1, 2, 3 });
+        }
+        assertThat(badPack.exists(), equalTo(false));
+    }
+
+    @Test
+    void testTagSetCache() throws IOException, ParseFailureException {
+        // Test the cache by itself.  Each of these entries is 120 + 40 bytes.
+        TagSetCache cache = new TagSetCache(500);
+        int[] tags = new int[10];
+        cache.put("A", tags);
+        cache.put("B", tags);
+        cache.put("C", tags);
+        assertThat(cache.size(), equalTo(3));
+        assertThat(cache.get("A"), sameInstance(tags));
+        // Adding D should evict B, since A was just used.
+        cache.put("D", tags);
+        assertThat(cache.size(), equalTo(3));
+        assertThat(cache.get("B"), nullValue());
+        assertThat(cache.get("C"), sameInstance(tags));
+        assertThat(cache.getHits(), equalTo(2L));
+        assertThat(cache.getMisses(), equalTo(1L));
+        assertThat(cache.getEvictions(), equalTo(1L));
+        assertThat(cache.getMemory(), equalTo(480L));
+        // An oversized entry should not be cached at all.
+        cache.put("E", new int[200]);
+        assertThat(cache.get("E"), nullValue());
+        assertThat(cache.size(), equalTo(3));
+        cache.remove("A");
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.getMemory(), equalTo(320L));
+        // Now test the cache inside a tag directory.
+        FeatureScanner roleScanner = FeatureScanner.Type.ROLE.create(this);
+        File tagDir = new File("data", "tagCacheTest");
+        if (tagDir.isDirectory())
+            FileUtils.deleteDirectory(tagDir);
+        TagDirectory tagController = new TagDirectory(tagDir);
+        for (String genomeId : GENOME_SET_1)
+            tagController.addGenome(this.loadGTO(genomeId), roleScanner);
+        tagController.setCacheLimit(100000000L);
+        Set<String> genomeSet = Set.of(GENOME_SET_1);
+        TagCounts counts1 = tagController.getTagCounts(genomeSet);
+        TagCounts counts2 = tagController.getTagCounts(genomeSet);
+        TagSetCache dirCache = tagController.getCache();
+        assertThat(dirCache.getMisses(), equalTo((long) GENOME_SET_1.length));
+        assertThat(dirCache.getHits(), equalTo((long) GENOME_SET_1.length));
+        assertThat(counts2.size(), equalTo(counts1.size()));
+        for (var counter : counts1.getAllCounts())
+            assertThat(counter.getKey(), counts2.getCount(counter.getKey()), equalTo(counter.getValue().getValue()));
+        // Verify that the cached sets are private copies.
+        Set<String> genomeTags = tagController.getGenome(GENOME_SET_1[0]);
+        int oldSize = genomeTags.size();
+        genomeTags.clear();
+        assertThat(tagController.getGenome(GENOME_SET_1[0]).size(), equalTo(oldSize));
     }
 
     /**
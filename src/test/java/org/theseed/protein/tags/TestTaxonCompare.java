@@ -8,8 +8,10 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
@@ -78,6 +80,87 @@ class TestTaxonCompare implements FeatureScanner.IParms {
         assertThat(nameMap.size(), equalTo(2));
         assertThat(nameMap.get(1236), equalTo("Gammaproteobacteria"));
         assertThat(nameMap.get(28216), equalTo("Betaproteobacteria"));
+        // Verify that bottom-up aggregation produces the same results.
+        compareEngine.setBottomUp(true);
+        Map<Integer, Set<String>> bottomUpMap = compareEngine.computeDistinguishingTags();
+        assertThat(bottomUpMap, equalTo(taxonTagMap));
+        // Verify that the count cache is built, reused, and invalidated.
+        File cacheFile = new File(taxDirName, TaxonCountCache.CACHE_FILE_NAME);
+        compareEngine.setBottomUp(false);
+        compareEngine.setCountCache(true);
+        Map<Integer, Set<String>> cacheMap = compareEngine.computeDistinguishingTags();
+        assertThat(cacheMap, equalTo(taxonTagMap));
+        assertThat(cacheFile.canRead(), equalTo(true));
+        byte[] fingerprint = TaxonCountCache.fingerprint(taxDirName, tagDirName);
+        try (TaxonCountCache countCache = new TaxonCountCache(cacheFile, tagDir.getDictionary())) {
+            assertThat(countCache.matches(fingerprint), equalTo(true));
+            Set<String> g1236Tags = tagDir.getTagCounts(g1236).getTagsInRange(1, Integer.MAX_VALUE);
+            assertThat(countCache.getSize(1236), equalTo(g1236.size()));
+            assertThat(countCache.getCounts(1236).getTagsInRange(1, Integer.MAX_VALUE), equalTo(g1236Tags));
+            assertThat(countCache.getSize(-5), equalTo(-1));
+            assertThat(countCache.getCounts(-5), nullValue());
+        }
+        long cacheTime = cacheFile.lastModified();
+        cacheMap = compareEngine.computeDistinguishingTags();
+        assertThat(cacheMap, equalTo(taxonTagMap));
+        assertThat(cacheFile.lastModified(), equalTo(cacheTime));
+        // Different thresholds should reuse the cache and match an uncached run.
+        TaxonCompare cachedEngine = new TaxonCompare(taxDirName, tagDirName, 0.1, 0.9);
+        cachedEngine.setCountCache(true);
+        TaxonCompare plainEngine = new TaxonCompare(taxDirName, tagDirName, 0.1, 0.9);
+        assertThat(cachedEngine.computeDistinguishingTags(), equalTo(plainEngine.computeDistinguishingTags()));
+        // Verify that a threshold sweep matches the individual runs.
+        List<GroupCompareEngine> engines = List.of(plainEngine.createEngine(0.2, 0.8), plainEngine.createEngine(0.1, 0.9));
+        List<Map<Integer, Set<String>>> sweepMaps = plainEngine.computeDistinguishingTags(engines);
+        assertThat(sweepMaps.size(), equalTo(2));
+        assertThat(sweepMaps.get(0), equalTo(taxonTagMap));
+        assertThat(sweepMaps.get(1), equalTo(plainEngine.computeDistinguishingTags()));
+        plainEngine.setBottomUp(true);
+        assertThat(plainEngine.computeDistinguishingTags(engines), equalTo(sweepMaps));
+        // Verify that streaming the results to a sink delivers each compared grouping once.
+        plainEngine.setBottomUp(false);
+        Map<Integer, Set<String>> sinkMap = new ConcurrentHashMap<Integer, Set<String>>();
+        compareEngine.computeDistinguishingTags((engineIdx, taxId, tagSet) -> {
+            assertThat(engineIdx, equalTo(0));
+            assertThat(sinkMap.put(taxId, tagSet), nullValue());
+        });
+        assertThat(sinkMap, equalTo(taxonTagMap));
+        assertThat(compareEngine.getComparedGroups(), equalTo(taxonTagMap.keySet()));
+        // Changing the tags should change the fingerprint.
+        tagDir.addTags("999999.1", Set.of("FakeTag"));
+        byte[] fingerprint2 = TaxonCountCache.fingerprint(taxDirName, tagDirName);
+        assertThat(fingerprint2, not(equalTo(fingerprint)));
+        // So should touching a file.
+        File treeFile = new File(taxDirName, "tree.links");
+        assertThat(treeFile.setLastModified(treeFile.lastModified() + 10000), equalTo(true));
+        assertThat(TaxonCountCache.fingerprint(taxDirName, tagDirName), not(equalTo(fingerprint2)));
+    }
+
+    @Test
+    void testCountCacheUnknownTags() throws IOException {
+        File cacheFile = new File("data", "unknownTags.counts");
+        byte[] fingerprint = new byte[32];
+        TagDictionary bigDict = new TagDictionary(List.of("A", "B", "C"));
+        ArrayTagCounts counts = new ArrayTagCounts(bigDict);
+        counts.count(List.of("A", "C"));
+        try (TaxonCountCache.Writer writer = new TaxonCountCache.Writer(cacheFile, bigDict, fingerprint)) {
+            writer.add(100, 1, counts);
+            writer.commit();
+        }
+        // A dictionary with all the tags can use the cache.
+        try (TaxonCountCache cache = new TaxonCountCache(cacheFile, new TagDictionary(List.of("C", "B", "A")))) {
+            assertThat(cache.matches(fingerprint), equalTo(true));
+            assertThat(cache.getCounts(100).getCount("C"), equalTo(1));
+            assertThat(cache.getCounts(100).getCount("B"), equalTo(0));
+        }
+        // A dictionary missing a tag cannot, and is not changed by opening the cache.
+        TagDictionary smallDict = new TagDictionary(List.of("A", "B"));
+        try (TaxonCountCache cache = new TaxonCountCache(cacheFile, smallDict)) {
+            assertThat(cache.matches(fingerprint), equalTo(false));
+            assertThat(smallDict.size(), equalTo(2));
+            assertThat(smallDict.findId("C"), equalTo(-1));
+        }
+        FileUtils.deleteQuietly(cacheFile);
     }
 
     @Override
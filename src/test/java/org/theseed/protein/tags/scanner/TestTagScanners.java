@@ -8,9 +8,14 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.Test;
 import org.theseed.basic.ParseFailureException;
 import org.theseed.genome.Feature;
@@ -69,6 +74,58 @@ public class TestTagScanners implements FeatureScanner.IParms {
         }
     }
 
+    /**
+     * This is the original tag computation, which built a set for each feature and merged them.  It is
+     * independent of the scanners' tag sinks, so it can be used to check them.
+     *
+     * @param type		type of scanner being simulated
+     * @param genome	genome to scan
+     * @param roleMap	role definition map
+     *
+     * @return the set of tags for the genome
+     */
+    private static Set<String> oldGenomeTags(FeatureScanner.Type type, Genome genome, RoleMap roleMap) {
+        Set<String> retVal = new HashSet<String>();
+        for (Feature feat : genome.getFeatures()) {
+            Set<String> tags = Collections.emptySet();
+            if (feat.getType().equals("CDS")) {
+                switch (type) {
+                case ROLE :
+                    tags = feat.getUsefulRoles(roleMap).stream().map(x -> x.getId()).collect(Collectors.toSet());
+                    break;
+                case PGFAM :
+                    String pgfam = feat.getPgfam();
+                    if (! StringUtils.isBlank(pgfam))
+                        tags = Set.of(pgfam);
+                    break;
+                }
+            }
+            retVal.addAll(tags);
+        }
+        return retVal;
+    }
+
+    @Test
+    void testTagSink() throws IOException, ParseFailureException {
+        Genome genome = new Genome(new File("data", "511145.12.gto"));
+        RoleMap roleMap = RoleMap.load(this.getRoleFileName());
+        for (FeatureScanner.Type type : FeatureScanner.Type.values()) {
+            FeatureScanner scanner = type.create(this);
+            Set<String> expected = oldGenomeTags(type, genome, roleMap);
+            assertThat(type.toString(), expected, not(empty()));
+            assertThat(type.toString(), scanner.getTags(genome), equalTo(expected));
+            // The sink may see duplicates, but it should see exactly the tags in the set.
+            Set<String> found = new TreeSet<String>();
+            int[] count = new int[] { 0 };
+            scanner.scanGenome(genome, tag -> {
+                found.add(tag);
+                count[0]++;
+            });
+            assertThat(type.toString(), found, equalTo(expected));
+            assertThat(type.toString(), count[0], greaterThanOrEqualTo(expected.size()));
+        }
+    }
+
     @Override
     public File getRoleFileName() {
         return new File("data", "roles.in.subsystems");
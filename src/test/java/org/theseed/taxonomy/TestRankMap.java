@@ -8,6 +8,12 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.jupiter.api.Test;
 import org.theseed.genome.TaxItem;
@@ -42,6 +48,75 @@ public class TestRankMap {
         assertThat(saveFile.canRead(), equalTo(true));
         RankMap newGenusMap = new RankMap(saveFile);
         validateMap(newGenusMap);
+        // Now index the saved file and verify the index.
+        RankIndex genusIndex = new RankIndex(saveFile);
+        assertThat(genusIndex.size(), equalTo(4));
+        assertThat(genusIndex.contains(300), equalTo(true));
+        assertThat(genusIndex.contains(500), equalTo(false));
+        assertThat(genusIndex.getName(200), equalTo("tax200"));
+        assertThat(genusIndex.getName(500), nullValue());
+        assertThat(genusIndex.getGenomes(400), containsInAnyOrder("400.1", "400.2", "400.3", "400.4", "400.5"));
+        assertThat(genusIndex.getGenomes(300), containsInAnyOrder("300.1"));
+        assertThat(genusIndex.getGenomes(500), nullValue());
+        Map<Integer, Set<String>> genomeSets = new HashMap<Integer, Set<String>>();
+        Set<Integer> missing = genusIndex.getGenomes(List.of(100, 200, 500), genomeSets);
+        assertThat(missing, contains(500));
+        assertThat(genomeSets.size(), equalTo(2));
+        assertThat(genomeSets.get(100), equalTo(newGenusMap.getTaxData(100).getGenomes()));
+        assertThat(genomeSets.get(200), equalTo(newGenusMap.getTaxData(200).getGenomes()));
+    }
+
+    @Test
+    void testRankIndexNonAscii() throws IOException {
+        // Build a rank file with accented names.  The groupings after them must still be indexed.
+        File saveFile = new File("data", "genusMap3.ser");
+        List<String> lines = List.of("tax_id\ttax_name\tgenomes",
+                "100\tEschérichia\t100.1,100.2",
+                "200\tBüchneraé\t200.1",
+                "300\ttax300\t300.1,300.2,300.3",
+                "400\t中文\t400.1");
+        Files.write(saveFile.toPath(), lines, StandardCharsets.UTF_8);
+        RankIndex genusIndex = new RankIndex(saveFile);
+        assertThat(genusIndex.size(), equalTo(4));
+        assertThat(genusIndex.getName(100), equalTo("Eschérichia"));
+        assertThat(genusIndex.getName(200), equalTo("Büchneraé"));
+        assertThat(genusIndex.getName(300), equalTo("tax300"));
+        assertThat(genusIndex.getName(400), equalTo("中文"));
+        assertThat(genusIndex.getGenomes(100), containsInAnyOrder("100.1", "100.2"));
+        assertThat(genusIndex.getGenomes(200), containsInAnyOrder("200.1"));
+        assertThat(genusIndex.getGenomes(300), containsInAnyOrder("300.1", "300.2", "300.3"));
+        assertThat(genusIndex.getGenomes(400), containsInAnyOrder("400.1"));
+    }
+
+    @Test
+    void testSharedGenomeTable() throws IOException {
+        GenomeIdTable genomeTable = new GenomeIdTable();
+        RankMap genusMap = new RankMap(genomeTable);
+        TaxItem t1 = new TaxItem(100, "tax100", "genus");
+        TaxItem t2 = new TaxItem(200, "tax200", "genus");
+        // Add genomes out of order and with duplicates.
+        genusMap.add("100.3", t1);
+        genusMap.add("100.1", t1);
+        genusMap.add("100.2", t1);
+        genusMap.add("100.1", t1);
+        genusMap.add("200.1", t2);
+        genusMap.add("200.2", t2);
+        Set<String> genomes = genusMap.getTaxData(100).getGenomes();
+        assertThat(genomes, contains("100.1", "100.2", "100.3"));
+        assertThat(genomes.contains("100.2"), equalTo(true));
+        assertThat(genomes.contains("200.2"), equalTo(false));
+        File saveFile = new File("data", "genusMap2.ser");
+        genusMap.save(saveFile);
+        // Load the map into a second rank map that shares the table.  The genomes should map to the same indices.
+        RankMap newGenusMap = new RankMap(saveFile, genomeTable);
+        assertThat(genomeTable.size(), equalTo(5));
+        assertThat(newGenusMap.getTaxData(200).getGenomes(), contains("200.1", "200.2"));
+        // Adding to a loaded grouping must not disturb its neighbors in the shared member array.
+        newGenusMap.add("100.0", t1);
+        assertThat(newGenusMap.getTaxData(100).getGenomes(), contains("100.0", "100.1", "100.2", "100.3"));
+        assertThat(newGenusMap.getTaxData(200).getGenomes(), contains("200.1", "200.2"));
+        assertThat(genomeTable.findIndex("100.0"), equalTo(5));
+        assertThat(genomeTable.getGenome(genomeTable.findIndex("200.2")), equalTo("200.2"));
     }
 
     /**
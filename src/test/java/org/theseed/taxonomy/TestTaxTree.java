@@ -53,6 +53,36 @@ class TestTaxTree {
         assertThat(saveFile.canRead(), equalTo(true));
         TaxTree testTree2 = new TaxTree(saveFile);
         validateTree(testTree2);
+        // Test the compiled tree.
+        CompiledTaxTree compiled = testTree2.compile();
+        assertThat(compiled.size(), equalTo(13));
+        assertThat(compiled.getTree(), equalTo(testTree2.getTree()));
+        assertThat(compiled.getParent(9), equalTo(7));
+        assertThat(compiled.getParent(2), equalTo(99));
+        assertThat(compiled.getParent(99), equalTo(-1));
+        assertThat(compiled.getParent(50), equalTo(-1));
+        assertThat(compiled.getChildren(3), equalTo(new int[] { 7, 10 }));
+        assertThat(compiled.getChildren(TaxTree.ROOT_GROUP), equalTo(new int[] { 99 }));
+        assertThat(compiled.getChildren(12).length, equalTo(0));
+        assertThat(compiled.getChildCount(2), equalTo(3));
+        int[] taxIds = compiled.getTaxIds();
+        assertThat(taxIds.length, equalTo(13));
+        assertThat(taxIds[0], equalTo(TaxTree.ROOT_GROUP));
+        assertThat(taxIds[1], equalTo(99));
+        for (int taxId : taxIds)
+            assertThat(compiled.contains(taxId), equalTo(true));
+        assertThat(compiled.getDepth(TaxTree.ROOT_GROUP), equalTo(0));
+        assertThat(compiled.getDepth(12), equalTo(5));
+        assertThat(compiled.isAncestor(3, 12), equalTo(true));
+        assertThat(compiled.isAncestor(12, 12), equalTo(true));
+        assertThat(compiled.isAncestor(2, 12), equalTo(false));
+        assertThat(compiled.isAncestor(12, 3), equalTo(false));
+        assertThat(compiled.isAncestor(TaxTree.ROOT_GROUP, 8), equalTo(true));
+        assertThat(compiled.getCommonAncestor(8, 12), equalTo(3));
+        assertThat(compiled.getCommonAncestor(8, 9), equalTo(7));
+        assertThat(compiled.getCommonAncestor(4, 11), equalTo(99));
+        assertThat(compiled.getCommonAncestor(7, 8), equalTo(7));
+        assertThat(compiled.getCommonAncestor(7, 50), equalTo(-1));
     }
 
     /**
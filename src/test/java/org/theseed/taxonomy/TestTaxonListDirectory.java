@@ -100,6 +100,21 @@ class TestTaxonListDirectory {
                 }
             }
         }
+        // Verify the genome lineage table.
+        try (GenomeLineageTable lineages = taxController.getLineageTable()) {
+            assertThat(lineages.size(), equalTo(genomes.size()));
+            for (Genome genome : genomes) {
+                var genomeData = lineages.get(genome.getId());
+                assertThat(genome.getId(), genomeData, not(nullValue()));
+                assertThat(genome.getId(), genomeData.getName(), equalTo(genome.getName()));
+                int[] lineage = genomeData.getLineage();
+                assertThat(genome.getId(), lineage.length, greaterThan(0));
+                // The smallest grouping comes last.
+                assertThat(genome.getId(), lineage[lineage.length - 1], equalTo(genome.taxonomy().next().getId()));
+                assertThat(genome.getId(), lineage, equalTo(genome.getLineage()));
+            }
+            assertThat(lineages.get("not.a.genome"), nullValue());
+        }
         // Now test the mass genome-set retrieval.
         Set<Integer> taxSet = Set.of(481, 561, 724, 570);
         Map<Integer, Set<String>> genomeSetMap = taxController.getGenomeSets(taxSet);
@@ -124,4 +139,50 @@ class TestTaxonListDirectory {
         assertThat(nameMap.get(570), equalTo("Klebsiella"));
     }
 
+    @Test
+    void testParallelUpdate() throws IOException, ParseFailureException {
+        File seqDir = new File("data", "taxTestSeq");
+        File parDir = new File("data", "taxTestPar");
+        for (File dir : new File[] { seqDir, parDir }) {
+            if (dir.isDirectory())
+                FileUtils.deleteDirectory(dir);
+        }
+        GenomeSource genomes = GenomeSource.Type.DIR.create(new File("data"));
+        TaxonListDirectory seqController = new TaxonListDirectory(seqDir);
+        seqController.updateRankMaps(genomes);
+        TaxonListDirectory parController = new TaxonListDirectory(parDir);
+        parController.updateRankMaps(genomes, 3);
+        // The two directories should have the same content.
+        assertThat(parController.getTaxTree(), equalTo(seqController.getTaxTree()));
+        for (String rank : TaxonListDirectory.RANKS) {
+            RankMap seqMap = seqController.getRankMap(rank);
+            RankMap parMap = parController.getRankMap(rank);
+            int[] taxIds = seqMap.getTaxIds();
+            assertThat(rank, parMap.getTaxIds(), equalTo(taxIds));
+            for (int taxId : taxIds) {
+                String label = rank + " " + taxId;
+                var seqData = seqMap.getTaxData(taxId);
+                var parData = parMap.getTaxData(taxId);
+                assertThat(label, parData.getName(), equalTo(seqData.getName()));
+                assertThat(label, parData.getGenomes(), equalTo(seqData.getGenomes()));
+                assertThat(label, parController.getRank(taxId), equalTo(rank));
+            }
+        }
+        // Both directories should have the correct lineage for every genome.
+        try (GenomeLineageTable seqLineages = seqController.getLineageTable();
+                GenomeLineageTable parLineages = parController.getLineageTable()) {
+            assertThat(seqLineages.size(), equalTo(genomes.size()));
+            assertThat(parLineages.size(), equalTo(genomes.size()));
+            for (Genome genome : genomes) {
+                String genomeId = genome.getId();
+                for (GenomeLineageTable lineages : new GenomeLineageTable[] { seqLineages, parLineages }) {
+                    var genomeData = lineages.get(genomeId);
+                    assertThat(genomeId, genomeData, not(nullValue()));
+                    assertThat(genomeId, genomeData.getName(), equalTo(genome.getName()));
+                    assertThat(genomeId, genomeData.getLineage(), equalTo(genome.getLineage()));
+                }
+            }
+        }
+    }
+
 }